@@ -0,0 +1,166 @@
+package me.drton.jmavsim;
+
+import me.drton.jmavlib.mavlink.MAVLinkMessage;
+import me.drton.jmavsim.mavlink.HilControls;
+import me.drton.jmavsim.mavlink.MissionAck;
+import me.drton.jmavsim.mavlink.MissionRequest;
+import me.drton.jmavsim.vehicle.AbstractMulticopter;
+import me.drton.jmavsim.vehicle.Quadcopter;
+
+import javax.vecmath.Matrix3d;
+import javax.vecmath.Vector3d;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Checks that steady-state World.update and MAVLink receive path don't allocate memory.
+ * Runs headless world with one multicopter, HIL system that sends sensors to sink port and flight recorder, then passes
+ * frames to MAVLink control and HIL systems, measures bytes allocated by current thread, exits with code 1 on failure.
+ * Requires HotSpot com.sun.management.ThreadMXBean.
+ */
+public class AllocationTest {
+    private static final int WARMUP_UPDATES = 200000;
+    private static final int MEASURE_UPDATES = 1000000;
+    private static final long ALLOWED_BYTES = 1024;    // Measurement overhead
+
+    /**
+     * Autopilot port stand-in, counts sent frames.
+     */
+    private static class SinkPort extends MAVLinkPort {
+        private long framesNum = 0;
+        private long bytesNum = 0;
+
+        SinkPort() {
+            super(null);
+        }
+
+        @Override
+        public void handleFrame(int msgType, ByteBuffer frame) {
+            framesNum++;
+            bytesNum += frame.remaining();
+        }
+
+        @Override
+        public void handleMessage(MAVLinkMessage msg) {
+        }
+
+        @Override
+        public void update(long t) {
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isOpened() {
+            return true;
+        }
+
+        @Override
+        public void setDebug(boolean debug) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        World world = new World();
+        SimpleEnvironment environment = new SimpleEnvironment(world);
+        environment.setWind(new Vector3d(1.0, 2.0, 0.0));
+        world.addObject(environment);
+        AbstractMulticopter vehicle = new Quadcopter(world, "models/3dr_arducopter_quad_x.obj", "x", 0.33 / 2, 4.0,
+                0.05, 0.005, new Vector3d());
+        vehicle.setMass(0.8);
+        Matrix3d I = new Matrix3d();
+        I.m00 = 0.005;
+        I.m11 = 0.005;
+        I.m22 = 0.009;
+        vehicle.setMomentOfInertia(I);
+        vehicle.setDragMove(0.02);
+        vehicle.setDragRotate(0.01);
+        SimpleSensors sensors = new SimpleSensors();
+        sensors.setGPSDelay(200);
+        sensors.setGPSStartTime(1000);
+        vehicle.setSensors(sensors);
+        // Slightly asymmetric thrust to get vehicle flying and rotating
+        vehicle.setControl(Arrays.asList(0.62, 0.6, 0.61, 0.6));
+        // HIL connection like in Simulator, sensors are sent to sink port
+        MAVLinkConnection connection = new MAVLinkConnection(world);
+        SinkPort sinkPort = new SinkPort();
+        connection.addNode(sinkPort);
+        MAVLinkHILSystem hilSystem = new MAVLinkHILSystem(null, 1, 51, vehicle);
+        connection.addNode(hilSystem);
+        world.addObject(connection);
+        world.addObject(vehicle);
+        File recordFile = File.createTempFile("jmavsim-record", ".px4log");
+        recordFile.deleteOnExit();
+        FlightRecorder recorder = new FlightRecorder(world, vehicle, hilSystem, recordFile.getPath());
+        world.addObject(recorder);
+
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long t = 0;
+        for (int i = 0; i < WARMUP_UPDATES; i++) {
+            t += 2;
+            world.update(t);
+        }
+        long bytesStart = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURE_UPDATES; i++) {
+            t += 2;
+            world.update(t);
+        }
+        long bytes = threadMXBean.getThreadAllocatedBytes(threadId) - bytesStart;
+
+        System.out.println("Updates: " + MEASURE_UPDATES + ", allocated: " + bytes + " bytes, " +
+                (double) bytes / MEASURE_UPDATES + " bytes/update");
+        System.out.println("Vehicle position: " + vehicle.getPosition());
+        System.out.println("Sent to autopilot: " + sinkPort.framesNum + " frames, " + sinkPort.bytesNum + " bytes");
+        recorder.close();
+        System.out.println("Recorded: " + recordFile.length() + " bytes, dropped records: " +
+                recorder.getDroppedNum());
+
+        // Receive path: frames are decoded into pooled message instances, controls are copied to the vehicle
+        MAVLinkControl control = new MAVLinkControl(null, 255, 0, 1, 1);
+        connection.addNode(control);
+        MAVLinkMessageEncoder encoder = new MAVLinkMessageEncoder(1, 1);
+        MissionRequest missionRequest = new MissionRequest();
+        missionRequest.target_system = 2;   // Addressed to other system, so control doesn't reply
+        MissionAck missionAck = new MissionAck();
+        missionAck.target_system = 2;
+        HilControls hilControls = new HilControls();
+        for (int i = 0; i < WARMUP_UPDATES; i++) {
+            receiveAll(connection, encoder, missionRequest, missionAck, hilControls);
+        }
+        long frameBytesStart = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURE_UPDATES; i++) {
+            receiveAll(connection, encoder, missionRequest, missionAck, hilControls);
+        }
+        long frameBytes = threadMXBean.getThreadAllocatedBytes(threadId) - frameBytesStart;
+        System.out.println("Frames: " + MEASURE_UPDATES * 3 + ", allocated: " + frameBytes + " bytes, last throttle: " +
+                vehicle.getControl(3));
+        bytes += frameBytes;
+
+        if (bytes > ALLOWED_BYTES) {
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static void receiveAll(MAVLinkConnection connection, MAVLinkMessageEncoder encoder,
+                                   MissionRequest missionRequest, MissionAck missionAck, HilControls hilControls) {
+        missionRequest.seq++;
+        connection.sendFrame(null, MissionRequest.ID, encoder.encode(missionRequest));
+        connection.sendFrame(null, MissionAck.ID, encoder.encode(missionAck));
+        hilControls.time_usec += 4000;
+        hilControls.throttle = (hilControls.throttle + 0.001f) % 1.0f;
+        connection.sendFrame(null, HilControls.ID, encoder.encode(hilControls));
+    }
+}
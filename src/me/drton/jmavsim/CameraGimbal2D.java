@@ -4,7 +4,6 @@ import me.drton.jmavsim.vehicle.AbstractVehicle;
 
 import javax.vecmath.Matrix3d;
 import javax.vecmath.Vector3d;
-import java.util.List;
 
 /**
  * User: ton Date: 21.03.14 Time: 23:22
@@ -13,6 +12,7 @@ public class CameraGimbal2D extends KinematicObject {
     private DynamicObject baseObject;
     private int pitchChannel = -1;
     private double pitchScale = 1.0;
+    private Matrix3d pitchRotation = new Matrix3d();
 
     public CameraGimbal2D(World world) {
         super(world);
@@ -35,15 +35,15 @@ public class CameraGimbal2D extends KinematicObject {
         this.position = baseObject.position;
         this.velocity = baseObject.velocity;
         this.acceleration = baseObject.acceleration;
-        double yaw = Math.atan2(baseObject.rotation.getElement(1, 0), baseObject.rotation.getElement(0, 0));
+        Matrix3d baseRotation = baseObject.getRotation();
+        double yaw = Math.atan2(baseRotation.getElement(1, 0), baseRotation.getElement(0, 0));
         this.rotation.rotZ(yaw);
         if (pitchChannel >= 0 && baseObject instanceof AbstractVehicle) {
             // Control camera pitch
-            List<Double> control = ((AbstractVehicle) baseObject).getControl();
-            if (control.size() > pitchChannel) {
-                Matrix3d r = new Matrix3d();
-                r.rotY(control.get(4) * pitchScale);
-                this.rotation.mul(r);
+            AbstractVehicle vehicle = (AbstractVehicle) baseObject;
+            if (vehicle.getControlSize() > pitchChannel) {
+                pitchRotation.rotY(vehicle.getControl(4) * pitchScale);
+                this.rotation.mul(pitchRotation);
             }
         }
     }
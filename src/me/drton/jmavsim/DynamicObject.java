@@ -1,22 +1,39 @@
 package me.drton.jmavsim;
 
-import javax.vecmath.AxisAngle4d;
 import javax.vecmath.Matrix3d;
+import javax.vecmath.Quat4d;
 import javax.vecmath.Vector3d;
 
 /**
  * Abstract dynamic object class.
  * Calculates all kinematic parameters (attitude, attitude rates, position, velocity, acceleration) from force and torque acting on the vehicle.
+ * Dynamics is integrated with fixed physics step, independent of world update interval: each update performs as many
+ * steps as needed to reach the update time.
+ * Attitude is integrated as unit quaternion, rotation matrix is derived from it only when requested.
+ * Integration method is pluggable, see Integrator.
  */
 public abstract class DynamicObject extends KinematicObject {
+    /**
+     * Size of state vector: position (3), velocity (3), attitude quaternion (x, y, z, w), rotation rate (3).
+     */
+    public static final int STATE_SIZE = 13;
     protected long lastTime = -1;
+    private long physicsStep = 1000;    // Physics integration step, [us]
+    private long physicsTime = 0;       // Time of integrated state, [us]
+    private int maxSubsteps = 100;      // Max number of steps per update, the rest of time will be skipped
     protected double mass = 1.0;
     protected Matrix3d momentOfInertia = new Matrix3d();
     protected Matrix3d momentOfInertiaInv = new Matrix3d();
+    protected Quat4d attitude = new Quat4d(0.0, 0.0, 0.0, 1.0);
+    private boolean rotationValid = false;
+    protected Vector3d angularAcceleration = new Vector3d();
+    private Integrator integrator = new EulerIntegrator();
+    // Preallocated temporary objects to avoid allocations in physics step
+    private Vector3d tmpVec = new Vector3d();
+    private Quat4d attitudeDelta = new Quat4d();
 
     public DynamicObject(World world) {
         super(world);
-        rotation.rotX(0);
         momentOfInertia.rotZ(0.0);
         momentOfInertiaInv.rotZ(0.0);
     }
@@ -34,56 +51,304 @@ public abstract class DynamicObject extends KinematicObject {
         this.momentOfInertiaInv.invert(momentOfInertia);
     }
 
+    public Integrator getIntegrator() {
+        return integrator;
+    }
+
+    /**
+     * Set integration method. Integrator may keep internal state, so each object needs own instance.
+     *
+     * @param integrator
+     */
+    public void setIntegrator(Integrator integrator) {
+        this.integrator = integrator;
+    }
+
+    /**
+     * Get attitude quaternion, rotation from body to earth frame.
+     * Use setAttitude() to modify attitude.
+     *
+     * @return attitude quaternion
+     */
+    public Quat4d getAttitude() {
+        return attitude;
+    }
+
+    public void setAttitude(Quat4d attitude) {
+        this.attitude.set(attitude);
+        rotationValid = false;
+    }
+
+    /**
+     * Get rotation matrix, calculated from attitude quaternion if attitude changed since last call.
+     *
+     * @return rotation matrix
+     */
+    @Override
+    public Matrix3d getRotation() {
+        if (!rotationValid) {
+            rotation.set(attitude);
+            rotationValid = true;
+        }
+        return rotation;
+    }
+
+    /**
+     * Set fixed physics integration step.
+     *
+     * @param step [s]
+     */
+    public void setPhysicsStep(double step) {
+        this.physicsStep = Math.max(1, Math.round(step * 1e6));
+    }
+
+    /**
+     * Get fixed physics integration step.
+     *
+     * @return step [s]
+     */
+    public double getPhysicsStep() {
+        return physicsStep * 1e-6;
+    }
+
+    /**
+     * Set max number of physics steps per update. If simulation lags behind, the rest of time will be skipped.
+     *
+     * @param maxSubsteps
+     */
+    public void setMaxSubsteps(int maxSubsteps) {
+        this.maxSubsteps = maxSubsteps;
+    }
+
     @Override
     public void update(long t) {
+        long time = t * 1000;
         if (lastTime >= 0) {
-            double dt = (t - lastTime) / 1000.0;
-            if (dt < 0.001) {
-                dt = 0.001; // Limit min dt to 1ms
-            }
-            // Position
-            Vector3d dPos = new Vector3d(velocity);
-            dPos.scale(dt);
-            position.add(dPos);
-            // Velocity
-            acceleration = getForce();
-            acceleration.scale(1.0 / mass);
-            acceleration.add(getWorld().getEnvironment().getG());
-            if (position.z >= getWorld().getEnvironment().getGroundLevel(position) &&
-                    velocity.z + acceleration.z * dt >= 0.0) {
-                // On ground
-                acceleration.x = -velocity.x / dt;
-                acceleration.y = -velocity.y / dt;
-                acceleration.z = -velocity.z / dt;
-                position.z = getWorld().getEnvironment().getGroundLevel(position);
-                rotationRate.set(0.0, 0.0, 0.0);
-            }
-            Vector3d dVel = new Vector3d(acceleration);
-            dVel.scale(dt);
-            velocity.add(dVel);
-            // Rotation
-            if (rotationRate.length() > 0.0) {
-                Matrix3d r = new Matrix3d();
-                Vector3d rotationAxis = new Vector3d(rotationRate);
-                rotationAxis.normalize();
-                r.set(new AxisAngle4d(rotationAxis, rotationRate.length() * dt));
-                rotation.mulNormalize(r);
+            double dt = physicsStep * 1e-6;
+            int n = 0;
+            while (physicsTime + physicsStep <= time) {
+                if (n >= maxSubsteps) {
+                    physicsTime = time;
+                    break;
+                }
+                step(dt);
+                physicsTime += physicsStep;
+                n++;
             }
-            // Rotation rate
-            Vector3d Iw = new Vector3d(rotationRate);
-            momentOfInertia.transform(Iw);
-            Vector3d angularAcc = new Vector3d();
-            angularAcc.cross(rotationRate, Iw);
-            angularAcc.negate();
-            angularAcc.add(getTorque());
-            momentOfInertiaInv.transform(angularAcc);
-            angularAcc.scale(dt);
-            rotationRate.add(angularAcc);
+        } else {
+            physicsTime = time;
         }
         lastTime = t;
     }
 
+    /**
+     * Integrate dynamics over one physics step.
+     *
+     * @param dt step [s]
+     */
+    protected void step(double dt) {
+        beforeStep(dt);
+        updateAccelerations();
+        if (isOnGround(dt)) {
+            applyGroundContact(dt);
+        } else {
+            integrator.step(this, dt);
+        }
+    }
+
+    /**
+     * Called on each physics step before accelerations are calculated, e.g. to update actuators.
+     *
+     * @param dt step [s]
+     */
+    protected void beforeStep(double dt) {
+    }
+
+    /**
+     * Check if object stays on ground during the step, accelerations must be calculated.
+     *
+     * @param dt step [s]
+     * @return true if object is on ground
+     */
+    protected boolean isOnGround(double dt) {
+        return position.z >= getWorld().getEnvironment().getGroundLevel(position) &&
+                velocity.z + acceleration.z * dt >= 0.0;
+    }
+
+    /**
+     * Step of object staying on ground: object is stopped on ground level.
+     *
+     * @param dt step [s]
+     */
+    protected void applyGroundContact(double dt) {
+        double groundLevel = getWorld().getEnvironment().getGroundLevel(position);
+        position.scaleAdd(dt, velocity, position);
+        position.z = groundLevel;
+        acceleration.scale(-1.0 / dt, velocity);
+        velocity.set(0.0, 0.0, 0.0);
+        rotationRate.set(0.0, 0.0, 0.0);
+    }
+
+    /**
+     * Calculate linear and angular accelerations for current state from force and torque.
+     */
+    public void updateAccelerations() {
+        acceleration.scale(1.0 / mass, getForce());
+        acceleration.add(getWorld().getEnvironment().getG());
+        tmpVec.set(rotationRate);
+        momentOfInertia.transform(tmpVec);
+        angularAcceleration.cross(rotationRate, tmpVec);
+        angularAcceleration.negate();
+        angularAcceleration.add(getTorque());
+        momentOfInertiaInv.transform(angularAcceleration);
+    }
+
+    /**
+     * Get angular acceleration calculated by last updateAccelerations() call.
+     *
+     * @return angular acceleration in body frame [rad / s^2]
+     */
+    public Vector3d getAngularAcceleration() {
+        return angularAcceleration;
+    }
+
+    /**
+     * Rotate attitude by constant rotation rate over time interval (exact for constant rate).
+     *
+     * @param rate rotation rate in body frame [rad / s]
+     * @param dt   time interval [s]
+     */
+    public void rotateAttitude(Vector3d rate, double dt) {
+        double rateLen = rate.length();
+        if (rateLen > 0.0) {
+            double halfAngle = rateLen * dt * 0.5;
+            double k = Math.sin(halfAngle) / rateLen;
+            attitudeDelta.set(rate.x * k, rate.y * k, rate.z * k, Math.cos(halfAngle));
+            attitude.mul(attitudeDelta);
+            normalizeAttitude();
+            rotationValid = false;
+        }
+    }
+
+    @Override
+    public void saveState(SimulationSnapshot snapshot) {
+        super.saveState(snapshot);
+        snapshot.putQuat(attitude);
+        snapshot.putBoolean(rotationValid);
+        snapshot.putTuple(angularAcceleration);
+        snapshot.putLong(lastTime);
+        snapshot.putLong(physicsTime);
+    }
+
+    @Override
+    public void restoreState(SimulationSnapshot snapshot) {
+        super.restoreState(snapshot);
+        snapshot.getQuat(attitude);
+        rotationValid = snapshot.getBoolean();
+        snapshot.getTuple(angularAcceleration);
+        lastTime = snapshot.getLong();
+        physicsTime = snapshot.getLong();
+    }
+
+    /**
+     * Copy object state to array, see STATE_SIZE for layout.
+     *
+     * @param state array of STATE_SIZE elements
+     */
+    public void getState(double[] state) {
+        state[0] = position.x;
+        state[1] = position.y;
+        state[2] = position.z;
+        state[3] = velocity.x;
+        state[4] = velocity.y;
+        state[5] = velocity.z;
+        state[6] = attitude.x;
+        state[7] = attitude.y;
+        state[8] = attitude.z;
+        state[9] = attitude.w;
+        state[10] = rotationRate.x;
+        state[11] = rotationRate.y;
+        state[12] = rotationRate.z;
+    }
+
+    /**
+     * Set object state from array, see STATE_SIZE for layout.
+     *
+     * @param state array of STATE_SIZE elements
+     */
+    public void setState(double[] state) {
+        position.set(state[0], state[1], state[2]);
+        velocity.set(state[3], state[4], state[5]);
+        attitude.set(state[6], state[7], state[8], state[9]);
+        rotationRate.set(state[10], state[11], state[12]);
+        rotationValid = false;
+    }
+
+    /**
+     * Calculate time derivative of the state. Object state is set to the given state and accelerations are updated.
+     *
+     * @param state      state, array of STATE_SIZE elements
+     * @param derivative output derivative, array of STATE_SIZE elements
+     */
+    public void getStateDerivative(double[] state, double[] derivative) {
+        setState(state);
+        updateAccelerations();
+        getCurrentStateDerivative(state, derivative);
+    }
+
+    /**
+     * Calculate time derivative of the current state using accelerations calculated by last updateAccelerations()
+     * call, i.e. without evaluating force and torque.
+     *
+     * @param state      current state, array of STATE_SIZE elements
+     * @param derivative output derivative, array of STATE_SIZE elements
+     */
+    public void getCurrentStateDerivative(double[] state, double[] derivative) {
+        derivative[0] = state[3];
+        derivative[1] = state[4];
+        derivative[2] = state[5];
+        derivative[3] = acceleration.x;
+        derivative[4] = acceleration.y;
+        derivative[5] = acceleration.z;
+        // q' = 0.5 * q * (rate, 0)
+        double qx = state[6];
+        double qy = state[7];
+        double qz = state[8];
+        double qw = state[9];
+        double wx = state[10];
+        double wy = state[11];
+        double wz = state[12];
+        derivative[6] = 0.5 * (qw * wx + qy * wz - qz * wy);
+        derivative[7] = 0.5 * (qw * wy + qz * wx - qx * wz);
+        derivative[8] = 0.5 * (qw * wz + qx * wy - qy * wx);
+        derivative[9] = -0.5 * (qx * wx + qy * wy + qz * wz);
+        derivative[10] = angularAcceleration.x;
+        derivative[11] = angularAcceleration.y;
+        derivative[12] = angularAcceleration.z;
+    }
+
+    /**
+     * Renormalize attitude quaternion. Quaternion stays very close to unit length after each step, so first order
+     * approximation of 1 / sqrt(n) is enough and avoids sqrt and division.
+     */
+    public void normalizeAttitude() {
+        double n = attitude.x * attitude.x + attitude.y * attitude.y + attitude.z * attitude.z +
+                attitude.w * attitude.w;
+        attitude.scale((3.0 - n) * 0.5);
+    }
+
+    /**
+     * Get total force acting on the object.
+     *
+     * @return force in earth frame [N], returned vector may be reused by implementation and is valid until next call
+     */
     protected abstract Vector3d getForce();
 
+    /**
+     * Get total torque acting on the object.
+     *
+     * @return torque in body frame [N * m], returned vector may be reused by implementation and is valid until next
+     * call
+     */
     protected abstract Vector3d getTorque();
 }
@@ -0,0 +1,15 @@
+package me.drton.jmavsim;
+
+/**
+ * Explicit Euler integrator: position and attitude are advanced with velocity and rotation rate from the beginning
+ * of the step.
+ */
+public class EulerIntegrator implements Integrator {
+    @Override
+    public void step(DynamicObject object, double dt) {
+        object.position.scaleAdd(dt, object.velocity, object.position);
+        object.velocity.scaleAdd(dt, object.acceleration, object.velocity);
+        object.rotateAttitude(object.rotationRate, dt);
+        object.rotationRate.scaleAdd(dt, object.angularAcceleration, object.rotationRate);
+    }
+}
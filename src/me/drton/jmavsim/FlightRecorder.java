@@ -0,0 +1,306 @@
+package me.drton.jmavsim;
+
+import me.drton.jmavsim.mavlink.HilGps;
+import me.drton.jmavsim.mavlink.HilSensor;
+import me.drton.jmavsim.vehicle.AbstractMulticopter;
+import me.drton.jmavsim.vehicle.AbstractVehicle;
+
+import javax.vecmath.Quat4d;
+import javax.vecmath.Vector3d;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Flight data recorder, records vehicle state, rotors, controls received from autopilot and sensors sent to
+ * autopilot on every update. Records are encoded into preallocated ring buffer in update, background thread writes
+ * the buffer to file, so recording doesn't block simulation. If the writer can't keep up, records are dropped and
+ * counted, see getDroppedNum().
+ * <p/>
+ * File format is PX4 log (sdlog2), so records can be read with IndexedLogReader and replayed with LogPlayerSensors
+ * and LogPlayerTarget. Messages:
+ * TIME (StartTime, [us]), LPOS (position, velocity, acceleration, NED), ATT (attitude quaternion, rotation rate),
+ * ROTR (rotor controls and thrusts, multicopters only), HILC (vehicle controls from HIL_CONTROLS),
+ * IMU and SENS (HIL_SENSOR, when sent), GPS (HIL_GPS, when sent).
+ * Recorder should be added to world after the vehicle, e.g. to the end of the vehicle object group.
+ */
+public class FlightRecorder extends WorldObject implements Runnable {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 22;  // [bytes]
+    private static final long WAIT_TIME = 1000000;  // Writer thread wait time when buffer is empty [ns]
+    private static final int MAX_ROTORS = 8;
+    private static final int CONTROLS_NUM = 8;
+    private static final int FMT_LENGTH = 89;
+
+    private static final int TYPE_FMT = 0x80;
+    private static final int TYPE_TIME = 1;
+    private static final int TYPE_LPOS = 2;
+    private static final int TYPE_ATT = 3;
+    private static final int TYPE_ROTR = 4;
+    private static final int TYPE_HILC = 5;
+    private static final int TYPE_IMU = 6;
+    private static final int TYPE_SENS = 7;
+    private static final int TYPE_GPS = 8;
+
+    private final AbstractVehicle vehicle;
+    private final MAVLinkHILSystem hilSystem;
+    private final Rotor[] rotors;
+    private final int rotorsNum;
+    private final FileChannel channel;
+    private final byte[] ring;
+    private final int ringMask;
+    private final ByteBuffer record;    // Current record, owned by simulation thread
+    private final AtomicLong head = new AtomicLong();   // Next byte to write to file, owned by writer thread
+    private final AtomicLong tail = new AtomicLong();   // Next byte to record, owned by simulation thread
+    private final AtomicLong droppedNum = new AtomicLong();
+    private volatile boolean stopped = false;
+    private volatile IOException error = null;
+    private Thread thread;
+    private Thread shutdownHook;
+
+    /**
+     * Create recorder and start writer thread.
+     *
+     * @param vehicle    vehicle to record
+     * @param hilSystem  HIL system of the vehicle to record sensors sent to autopilot, may be null
+     * @param fileName   output file name
+     * @param bufferSize ring buffer size, rounded up to power of two [bytes]
+     */
+    public FlightRecorder(World world, AbstractVehicle vehicle, MAVLinkHILSystem hilSystem, String fileName,
+                          int bufferSize) throws IOException {
+        super(world);
+        this.vehicle = vehicle;
+        this.hilSystem = hilSystem;
+        if (vehicle instanceof AbstractMulticopter) {
+            rotors = ((AbstractMulticopter) vehicle).getRotors();
+            rotorsNum = Math.min(rotors.length, MAX_ROTORS);
+        } else {
+            rotors = new Rotor[0];
+            rotorsNum = 0;
+        }
+        int size = Integer.highestOneBit(Math.max(bufferSize, 1024) - 1) << 1;
+        ring = new byte[size];
+        ringMask = size - 1;
+        record = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        channel = new FileOutputStream(fileName).getChannel();
+        writeFormats();
+        thread = new Thread(this, "FlightRecorder");
+        thread.setDaemon(true);
+        thread.start();
+        // Flush recorded data on exit
+        shutdownHook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    public FlightRecorder(World world, AbstractVehicle vehicle, MAVLinkHILSystem hilSystem, String fileName)
+            throws IOException {
+        this(world, vehicle, hilSystem, fileName, DEFAULT_BUFFER_SIZE);
+    }
+
+    private void writeFormats() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(FMT_LENGTH * 9).order(ByteOrder.LITTLE_ENDIAN);
+        putFormat(buf, TYPE_FMT, FMT_LENGTH, "FMT", "BBnNZ", "Type,Length,Name,Format,Columns");
+        putFormat(buf, TYPE_TIME, 3 + 8, "TIME", "Q", "StartTime");
+        putFormat(buf, TYPE_LPOS, 3 + 9 * 4, "LPOS", "fffffffff", "X,Y,Z,VX,VY,VZ,AX,AY,AZ");
+        putFormat(buf, TYPE_ATT, 3 + 7 * 4, "ATT", "fffffff", "qw,qx,qy,qz,RollRate,PitchRate,YawRate");
+        if (rotorsNum > 0) {
+            StringBuilder format = new StringBuilder();
+            StringBuilder labels = new StringBuilder();
+            for (int i = 0; i < rotorsNum * 2; i++) {
+                format.append('f');
+                labels.append(i > 0 ? "," : "").append(i < rotorsNum ? "C" : "T").append(i % rotorsNum);
+            }
+            putFormat(buf, TYPE_ROTR, 3 + rotorsNum * 2 * 4, "ROTR", format.toString(), labels.toString());
+        }
+        putFormat(buf, TYPE_HILC, 3 + CONTROLS_NUM * 4, "HILC", "ffffffff", "Roll,Pitch,Yaw,Thr,Aux1,Aux2,Aux3,Aux4");
+        putFormat(buf, TYPE_IMU, 3 + 9 * 4, "IMU", "fffffffff", "AccX,AccY,AccZ,GyroX,GyroY,GyroZ,MagX,MagY,MagZ");
+        putFormat(buf, TYPE_SENS, 3 + 4, "SENS", "f", "BaroAlt");
+        putFormat(buf, TYPE_GPS, 3 + 8 + 1 + 4 * 8, "GPS", "QBffLLffff", "GPSTime,Fix,EPH,EPV,Lat,Lon,Alt,VelN,VelE,VelD");
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    private static void putFormat(ByteBuffer buf, int type, int length, String name, String format, String labels) {
+        putHeader(buf, TYPE_FMT);
+        buf.put((byte) type);
+        buf.put((byte) length);
+        putString(buf, name, 4);
+        putString(buf, format, 16);
+        putString(buf, labels, 64);
+    }
+
+    private static void putString(ByteBuffer buf, String s, int length) {
+        for (int i = 0; i < length; i++) {
+            buf.put(i < s.length() ? (byte) s.charAt(i) : 0);
+        }
+    }
+
+    private static void putHeader(ByteBuffer buf, int type) {
+        buf.put((byte) 0xA3);
+        buf.put((byte) 0x95);
+        buf.put((byte) type);
+    }
+
+    @Override
+    public void update(long t) {
+        if (stopped) {
+            return;
+        }
+        ByteBuffer r = record;
+        r.clear();
+        putHeader(r, TYPE_TIME);
+        r.putLong(t * 1000);
+
+        Vector3d p = vehicle.getPosition();
+        Vector3d v = vehicle.getVelocity();
+        Vector3d a = vehicle.getAcceleration();
+        putHeader(r, TYPE_LPOS);
+        r.putFloat((float) p.x).putFloat((float) p.y).putFloat((float) p.z);
+        r.putFloat((float) v.x).putFloat((float) v.y).putFloat((float) v.z);
+        r.putFloat((float) a.x).putFloat((float) a.y).putFloat((float) a.z);
+
+        Quat4d q = vehicle.getAttitude();
+        Vector3d rate = vehicle.getRotationRate();
+        putHeader(r, TYPE_ATT);
+        r.putFloat((float) q.w).putFloat((float) q.x).putFloat((float) q.y).putFloat((float) q.z);
+        r.putFloat((float) rate.x).putFloat((float) rate.y).putFloat((float) rate.z);
+
+        if (rotorsNum > 0) {
+            putHeader(r, TYPE_ROTR);
+            for (int i = 0; i < rotorsNum; i++) {
+                r.putFloat((float) rotors[i].getControl());
+            }
+            for (int i = 0; i < rotorsNum; i++) {
+                r.putFloat((float) rotors[i].getThrust());
+            }
+        }
+
+        putHeader(r, TYPE_HILC);
+        for (int i = 0; i < CONTROLS_NUM; i++) {
+            r.putFloat((float) vehicle.getControl(i));
+        }
+
+        if (hilSystem != null) {
+            long tu = t * 1000;
+            HilSensor hilSensor = hilSystem.getHilSensor();
+            if (hilSensor.time_usec == tu) {
+                putHeader(r, TYPE_IMU);
+                r.putFloat(hilSensor.xacc).putFloat(hilSensor.yacc).putFloat(hilSensor.zacc);
+                r.putFloat(hilSensor.xgyro).putFloat(hilSensor.ygyro).putFloat(hilSensor.zgyro);
+                r.putFloat(hilSensor.xmag).putFloat(hilSensor.ymag).putFloat(hilSensor.zmag);
+                putHeader(r, TYPE_SENS);
+                r.putFloat(hilSensor.pressure_alt);
+            }
+            HilGps hilGps = hilSystem.getHilGps();
+            if (hilGps.time_usec == tu) {
+                putHeader(r, TYPE_GPS);
+                r.putLong(hilGps.time_usec);
+                r.put((byte) hilGps.fix_type);
+                r.putFloat(hilGps.eph / 100.0f).putFloat(hilGps.epv / 100.0f);
+                r.putInt(hilGps.lat).putInt(hilGps.lon);
+                r.putFloat(hilGps.alt / 1000.0f);
+                r.putFloat(hilGps.vn / 100.0f).putFloat(hilGps.ve / 100.0f).putFloat(hilGps.vd / 100.0f);
+            }
+        }
+
+        // Copy record to ring buffer
+        int length = r.position();
+        long t0 = tail.get();
+        if (t0 + length - head.get() > ring.length) {
+            droppedNum.incrementAndGet();
+            return;
+        }
+        int offset = (int) (t0 & ringMask);
+        int first = Math.min(length, ring.length - offset);
+        System.arraycopy(r.array(), 0, ring, offset, first);
+        System.arraycopy(r.array(), first, ring, 0, length - first);
+        tail.lazySet(t0 + length);
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer ringBuffer = ByteBuffer.wrap(ring);
+        try {
+            while (true) {
+                // Read stopped flag before tail, so the last records are written after stop
+                boolean stop = stopped;
+                long h = head.get();
+                long t = tail.get();
+                if (h == t) {
+                    if (stop) {
+                        break;
+                    }
+                    LockSupport.parkNanos(WAIT_TIME);
+                    continue;
+                }
+                int offset = (int) (h & ringMask);
+                int length = (int) Math.min(t - h, ring.length - offset);
+                ringBuffer.limit(offset + length).position(offset);
+                while (ringBuffer.hasRemaining()) {
+                    channel.write(ringBuffer);
+                }
+                head.lazySet(h + length);
+            }
+        } catch (IOException e) {
+            error = e;
+            System.out.println("Flight recorder write error: " + e);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Stop recording, write recorded data and close the file.
+     */
+    public synchronized void close() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException ignored) {
+            // Already shutting down
+        }
+    }
+
+    /**
+     * @return number of records dropped because ring buffer was full
+     */
+    public long getDroppedNum() {
+        return droppedNum.get();
+    }
+
+    /**
+     * @return number of bytes recorded but not written to file yet
+     */
+    public long getBufferedBytes() {
+        return tail.get() - head.get();
+    }
+
+    /**
+     * @return write error, or null if no errors
+     */
+    public IOException getError() {
+        return error;
+    }
+}
@@ -0,0 +1,110 @@
+package me.drton.jmavsim;
+
+/**
+ * Delay line for GNSS reports, ring of preallocated reports with primitive timestamps.
+ * Reports are copied in and out, so steady-state operation doesn't allocate memory. Ring grows only if it's too small
+ * for current delay and input interval.
+ */
+public class GNSSDelayLine implements Snapshottable {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private long delay = 0;
+    private long[] times = new long[INITIAL_CAPACITY];
+    private GNSSReport[] reports = new GNSSReport[INITIAL_CAPACITY];
+    private int head = 0;   // Oldest report
+    private int size = 0;
+    private final GNSSReport output = new GNSSReport();
+    private boolean outputValid = false;
+
+    public GNSSDelayLine() {
+        for (int i = 0; i < reports.length; i++) {
+            reports[i] = new GNSSReport();
+        }
+    }
+
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    public long getDelay() {
+        return delay;
+    }
+
+    /**
+     * Put report to the delay line and get the newest report that is at least delay old.
+     *
+     * @param t      current time
+     * @param report input report, copied
+     * @return output report, valid until next call, or null if no report is old enough yet
+     */
+    public GNSSReport getOutput(long t, GNSSReport report) {
+        if (size == reports.length) {
+            grow();
+        }
+        int tail = (head + size) % reports.length;
+        times[tail] = t;
+        reports[tail].set(report);
+        size++;
+        while (size > 0 && times[head] <= t - delay) {
+            output.set(reports[head]);
+            outputValid = true;
+            head = (head + 1) % reports.length;
+            size--;
+        }
+        return outputValid ? output : null;
+    }
+
+    /**
+     * @return last output report, or null if no report passed the delay line yet
+     */
+    public GNSSReport getLastOutput() {
+        return outputValid ? output : null;
+    }
+
+    @Override
+    public void saveState(SimulationSnapshot snapshot) {
+        snapshot.putLong(size);
+        for (int i = 0; i < size; i++) {
+            int j = (head + i) % reports.length;
+            snapshot.putLong(times[j]);
+            reports[j].saveState(snapshot);
+        }
+        output.saveState(snapshot);
+        snapshot.putBoolean(outputValid);
+    }
+
+    @Override
+    public void restoreState(SimulationSnapshot snapshot) {
+        int sizeNew = (int) snapshot.getLong();
+        head = 0;
+        size = 0;
+        while (reports.length < sizeNew) {
+            grow();
+        }
+        for (int i = 0; i < sizeNew; i++) {
+            times[i] = snapshot.getLong();
+            reports[i].restoreState(snapshot);
+        }
+        size = sizeNew;
+        output.restoreState(snapshot);
+        outputValid = snapshot.getBoolean();
+    }
+
+    private void grow() {
+        int capacity = reports.length * 2;
+        long[] timesNew = new long[capacity];
+        GNSSReport[] reportsNew = new GNSSReport[capacity];
+        for (int i = 0; i < capacity; i++) {
+            if (i < size) {
+                int j = (head + i) % reports.length;
+                timesNew[i] = times[j];
+                reportsNew[i] = reports[j];
+            } else {
+                reportsNew[i] = new GNSSReport();
+            }
+        }
+        times = timesNew;
+        reports = reportsNew;
+        head = 0;
+    }
+}
@@ -0,0 +1,58 @@
+package me.drton.jmavsim;
+
+import me.drton.jmavlib.geo.LatLonAlt;
+
+import javax.vecmath.Vector3d;
+
+/**
+ * Reprojection of local NED position to global position using azimuthal equidistant projection, the same as
+ * GlobalPositionProjector, but writes result to existing report instead of allocating.
+ * Trigonometric terms of the reference point are computed once in init().
+ */
+public class GNSSProjector {
+    private static final double EARTH_RADIUS = 6371000.0;
+    private static final double EARTH_RADIUS_INV = 1.0 / EARTH_RADIUS;
+
+    private double lat0 = 0.0;      // [rad]
+    private double lon0 = 0.0;      // [rad]
+    private double alt0 = 0.0;      // [m]
+    private double sinLat0 = 0.0;
+    private double cosLat0 = 1.0;
+
+    /**
+     * Set reference point, i.e. global position of local frame origin.
+     */
+    public void init(LatLonAlt reference) {
+        lat0 = Math.toRadians(reference.lat);
+        lon0 = Math.toRadians(reference.lon);
+        alt0 = reference.alt;
+        sinLat0 = Math.sin(lat0);
+        cosLat0 = Math.cos(lat0);
+    }
+
+    /**
+     * Convert local position to global and write it to the report, other fields of the report are not changed.
+     *
+     * @param pos    position in local NED frame, [m]
+     * @param report report to write lat, lon and alt
+     */
+    public void reproject(Vector3d pos, GNSSReport report) {
+        double xRad = pos.x * EARTH_RADIUS_INV;
+        double yRad = pos.y * EARTH_RADIUS_INV;
+        double c = Math.sqrt(xRad * xRad + yRad * yRad);
+        double latRad;
+        double lonRad;
+        if (c != 0.0) {
+            double sinC = Math.sin(c);
+            double cosC = Math.cos(c);
+            latRad = Math.asin(cosC * sinLat0 + (xRad * sinC * cosLat0) / c);
+            lonRad = lon0 + Math.atan2(yRad * sinC, c * cosLat0 * cosC - xRad * sinLat0 * sinC);
+        } else {
+            latRad = lat0;
+            lonRad = lon0;
+        }
+        report.lat = Math.toDegrees(latRad);
+        report.lon = Math.toDegrees(lonRad);
+        report.alt = alt0 - pos.z;
+    }
+}
@@ -1,20 +1,58 @@
 package me.drton.jmavsim;
 
-import me.drton.jmavlib.geo.LatLonAlt;
-
 import javax.vecmath.Vector3d;
 
 /**
- * GNSS Report.
+ * GNSS Report. Mutable, so producers can reuse preallocated instances.
  */
-public class GNSSReport {
-    public LatLonAlt position;
+public class GNSSReport implements Snapshottable {
+    public double lat;  // Latitude in [deg]
+    public double lon;  // Longitude in [deg]
+    public double alt;  // Altitude AMSL in [m]
     public double eph;
     public double epv;
-    public Vector3d velocity;
+    public final Vector3d velocity = new Vector3d();
     public int fix;     // 0 = no fix, 1 = time only, 2 = 2D fix, 3 = 3D fix
     public long time;   // UTC time in [us]
 
+    /**
+     * Copy all fields from other report.
+     */
+    public void set(GNSSReport report) {
+        lat = report.lat;
+        lon = report.lon;
+        alt = report.alt;
+        eph = report.eph;
+        epv = report.epv;
+        velocity.set(report.velocity);
+        fix = report.fix;
+        time = report.time;
+    }
+
+    @Override
+    public void saveState(SimulationSnapshot snapshot) {
+        snapshot.putDouble(lat);
+        snapshot.putDouble(lon);
+        snapshot.putDouble(alt);
+        snapshot.putDouble(eph);
+        snapshot.putDouble(epv);
+        snapshot.putTuple(velocity);
+        snapshot.putLong(fix);
+        snapshot.putLong(time);
+    }
+
+    @Override
+    public void restoreState(SimulationSnapshot snapshot) {
+        lat = snapshot.getDouble();
+        lon = snapshot.getDouble();
+        alt = snapshot.getDouble();
+        eph = snapshot.getDouble();
+        epv = snapshot.getDouble();
+        snapshot.getTuple(velocity);
+        fix = (int) snapshot.getLong();
+        time = snapshot.getLong();
+    }
+
     /**
      * Get scalar horizontal speed.
      *
@@ -0,0 +1,628 @@
+package me.drton.jmavsim;
+
+import me.drton.jmavlib.log.FormatErrorException;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reader of PX4 (sdlog2) log files, maps the log file to memory and builds index of TIME messages on first open, so
+ * seeking to any time is binary search. Index is stored in sidecar file (log file name + ".idx") and reused while the
+ * log file is not changed.
+ * <p/>
+ * Only registered columns are decoded, other fields are skipped. Consumer registers columns once with addColumn() and
+ * gets integer handles, each readUpdate() writes values of the columns to primitive row indexed by the handles, so no
+ * string lookups or boxing are needed on replay. Update is TIME message and all messages following it until next TIME
+ * message.
+ * <p/>
+ * Index sidecar layout, little-endian: magic "JVSMIDX1" (8 bytes), log file length (8), log file modification time
+ * (8), FMT messages number F (4), updates number N (4), FMT message offsets (F longs), update times (N longs, [us]),
+ * update offsets (N longs).
+ */
+public class IndexedLogReader {
+    public static final String INDEX_SUFFIX = ".idx";
+    private static final long INDEX_MAGIC = 0x4A56534D49445831L;  // "JVSMIDX1"
+    private static final int HEADER_SIZE = 3;
+    private static final int HEAD1 = 0xA3;
+    private static final int HEAD2 = 0x95;
+    private static final int FMT_TYPE = 0x80;
+    private static final int FMT_LENGTH = HEADER_SIZE + 86;
+    private static final String TIME_NAME = "TIME";
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    /**
+     * Message format defined by FMT message.
+     */
+    static class MessageFormat {
+        final int type;
+        final int length;
+        final String name;
+        final char[] fieldTypes;
+        final String[] fieldNames;      // Full names, "MSG.Label"
+        final int[] fieldOffsets;       // Offsets from message start
+        final boolean[] decode;         // Fields to decode
+        final int[] columns;            // Column handles of the fields, -1 if field is not registered
+        final double[] values;          // Last decoded values of the fields
+        final long[] longValues;        // Last decoded values of 64-bit integer fields, exact
+        final String[] stringValues;    // Last decoded values of string fields
+        boolean decodeAny = false;
+
+        MessageFormat(int type, int length, String name, String format, String[] labels) throws FormatErrorException {
+            this.type = type;
+            this.length = length;
+            this.name = name;
+            fieldTypes = format.toCharArray();
+            if (labels.length != fieldTypes.length) {
+                throw new FormatErrorException("Labels don't match format in message " + name);
+            }
+            fieldNames = new String[fieldTypes.length];
+            fieldOffsets = new int[fieldTypes.length];
+            int offset = HEADER_SIZE;
+            for (int i = 0; i < fieldTypes.length; i++) {
+                fieldNames[i] = name + "." + labels[i];
+                fieldOffsets[i] = offset;
+                int size = fieldSize(fieldTypes[i]);
+                if (size < 0) {
+                    throw new FormatErrorException("Unsupported field type '" + fieldTypes[i] + "' in message " + name);
+                }
+                offset += size;
+            }
+            if (offset > length) {
+                throw new FormatErrorException("Format doesn't fit message length in message " + name);
+            }
+            decode = new boolean[fieldTypes.length];
+            columns = new int[fieldTypes.length];
+            Arrays.fill(columns, -1);
+            values = new double[fieldTypes.length];
+            longValues = new long[fieldTypes.length];
+            stringValues = new String[fieldTypes.length];
+        }
+
+        int getFieldIndex(String fieldName) {
+            for (int i = 0; i < fieldNames.length; i++) {
+                if (fieldNames[i].equals(fieldName)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private final File file;
+    private RandomAccessFile randomAccessFile;
+    private final ByteBuffer buffer;
+    private final int limit;
+    private final MessageFormat[] formats = new MessageFormat[256];
+    private final Map<String, String> fields = new HashMap<String, String>();
+    private final List<MessageFormat> messagesRead = new ArrayList<MessageFormat>();
+    private final List<String> columnNames = new ArrayList<String>();
+    private boolean decodeAll = true;
+    private MessageFormat timeFormat = null;
+    private long[] fmtOffsets;
+    private long[] updateTimes;     // [us]
+    private long[] updateOffsets;
+    private int position = 0;
+    private long lastTime = 0;      // [us]
+
+    public IndexedLogReader(String fileName) throws IOException, FormatErrorException {
+        file = new File(fileName);
+        randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            long length = randomAccessFile.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Log file is too large to map: " + fileName);
+            }
+            MappedByteBuffer mapped = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            limit = (int) length;
+            File indexFile = new File(fileName + INDEX_SUFFIX);
+            if (!readIndex(indexFile)) {
+                buildIndex();
+                writeIndex(indexFile);
+            }
+            if (timeFormat == null || updateTimes.length == 0) {
+                throw new FormatErrorException("No TIME messages in log: " + fileName);
+            }
+            decodeAll(true);
+            position = (int) updateOffsets[0];
+        } catch (Throwable e) {
+            // Invalid log, don't keep the file open
+            randomAccessFile.close();
+            randomAccessFile = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Register column to decode. Columns that are absent in the log are never updated.
+     *
+     * @param column full name of the column, e.g. "IMU.AccX"
+     * @return handle of the column, index of its value in row, see readUpdate(double[], boolean[])
+     */
+    public int addColumn(String column) {
+        int handle = columnNames.indexOf(column);
+        if (handle >= 0) {
+            return handle;
+        }
+        if (decodeAll) {
+            decodeAll(false);
+        }
+        handle = columnNames.size();
+        columnNames.add(column);
+        for (MessageFormat format : formats) {
+            if (format == null) {
+                continue;
+            }
+            int i = format.getFieldIndex(column);
+            if (i >= 0) {
+                format.decode[i] = true;
+                format.columns[i] = handle;
+                format.decodeAny = true;
+            }
+        }
+        return handle;
+    }
+
+    /**
+     * @return number of registered columns, size of row
+     */
+    public int getColumnsNum() {
+        return columnNames.size();
+    }
+
+    /**
+     * Unregister all columns, all fields will be decoded for readUpdate(Map).
+     */
+    public void clearColumns() {
+        columnNames.clear();
+        decodeAll(true);
+    }
+
+    private void decodeAll(boolean decode) {
+        decodeAll = decode;
+        for (MessageFormat format : formats) {
+            if (format != null) {
+                Arrays.fill(format.decode, decode);
+                Arrays.fill(format.columns, -1);
+                format.decodeAny = decode && format.decode.length > 0;
+            }
+        }
+    }
+
+    /**
+     * @return number of updates (TIME messages) in the log
+     */
+    public int getUpdatesNum() {
+        return updateTimes.length;
+    }
+
+    /**
+     * @return time of the last update read [us]
+     */
+    public long getTime() {
+        return lastTime;
+    }
+
+    /**
+     * Read next update, write values of registered columns present in the update to row and set their updated flags.
+     * Values and flags of other columns are not changed, so few updates may be accumulated in one row.
+     *
+     * @param row     values of the columns, indexed by handles
+     * @param updated updated flags of the columns, indexed by handles
+     * @return time of the update [us]
+     * @throws EOFException if end of the log reached
+     */
+    public long readUpdate(double[] row, boolean[] updated) throws EOFException {
+        readMessages(row, updated, null);
+        return lastTime;
+    }
+
+    /**
+     * Read next update and decode requested fields into buffers of message formats.
+     *
+     * @param messages list to add format of each decoded message to, may be null
+     */
+    private void readMessages(double[] row, boolean[] updated, List<MessageFormat> messages) throws EOFException {
+        boolean timeRead = false;
+        while (true) {
+            if (position + HEADER_SIZE > limit) {
+                if (timeRead) {
+                    return;
+                }
+                throw new EOFException();
+            }
+            if ((buffer.get(position) & 0xFF) != HEAD1 || (buffer.get(position + 1) & 0xFF) != HEAD2) {
+                // Garbage in log, resync
+                position++;
+                continue;
+            }
+            int type = buffer.get(position + 2) & 0xFF;
+            if (type == FMT_TYPE) {
+                // Formats are already known from index
+                position += FMT_LENGTH;
+                continue;
+            }
+            MessageFormat format = formats[type];
+            if (format == null || position + format.length > limit) {
+                position++;
+                continue;
+            }
+            if (format == timeFormat) {
+                if (timeRead) {
+                    return;
+                }
+                lastTime = buffer.getLong(position + HEADER_SIZE);
+                timeRead = true;
+            }
+            if (format.decodeAny) {
+                decode(format, position, row, updated);
+                if (messages != null) {
+                    messages.add(format);
+                }
+            }
+            position += format.length;
+        }
+    }
+
+    /**
+     * Read next update into map of field name to value, slow path for tools, replay should use readUpdate(row,
+     * updated).
+     *
+     * @return time of the update [us]
+     */
+    public long readUpdate(Map<String, Object> update) throws IOException, FormatErrorException {
+        messagesRead.clear();
+        readMessages(null, null, messagesRead);
+        for (int m = 0; m < messagesRead.size(); m++) {
+            MessageFormat format = messagesRead.get(m);
+            for (int i = 0; i < format.fieldTypes.length; i++) {
+                if (format.decode[i]) {
+                    update.put(format.fieldNames[i], getObject(format, i));
+                }
+            }
+        }
+        return lastTime;
+    }
+
+    /**
+     * Seek to the last update not later than given time.
+     *
+     * @param t time [us]
+     * @return false if time is out of log range
+     */
+    public boolean seek(long t) {
+        int i = Arrays.binarySearch(updateTimes, t);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        if (i < 0) {
+            position = (int) updateOffsets[0];
+            lastTime = updateTimes[0];
+            return false;
+        }
+        position = (int) updateOffsets[i];
+        lastTime = updateTimes[i];
+        return i < updateTimes.length - 1 || t == updateTimes[i];
+    }
+
+    /**
+     * @return time of the first update [us]
+     */
+    public long getStartMicroseconds() {
+        return updateTimes[0];
+    }
+
+    /**
+     * @return time between the first and the last update [us]
+     */
+    public long getSizeMicroseconds() {
+        return updateTimes[updateTimes.length - 1] - updateTimes[0];
+    }
+
+    /**
+     * @return all fields of the log, full field name to field type
+     */
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    public void close() throws IOException {
+        if (randomAccessFile != null) {
+            randomAccessFile.close();
+            randomAccessFile = null;
+        }
+    }
+
+    private void decode(MessageFormat format, int messageOffset, double[] row, boolean[] updated) {
+        for (int i = 0; i < format.fieldTypes.length; i++) {
+            if (format.decode[i]) {
+                int offset = messageOffset + format.fieldOffsets[i];
+                char fieldType = format.fieldTypes[i];
+                double value = getDouble(fieldType, offset);
+                format.values[i] = value;
+                int column = format.columns[i];
+                if (row != null && column >= 0) {
+                    row[column] = value;
+                    updated[column] = true;
+                }
+                if (fieldType == 'q' || fieldType == 'Q') {
+                    format.longValues[i] = buffer.getLong(offset);
+                } else if (fieldType == 'n' || fieldType == 'N' || fieldType == 'Z') {
+                    format.stringValues[i] = getString(offset, fieldSize(fieldType));
+                }
+            }
+        }
+    }
+
+    private double getDouble(char fieldType, int offset) {
+        switch (fieldType) {
+            case 'b':
+                return buffer.get(offset);
+            case 'B':
+            case 'M':
+                return buffer.get(offset) & 0xFF;
+            case 'h':
+                return buffer.getShort(offset);
+            case 'H':
+                return buffer.getShort(offset) & 0xFFFF;
+            case 'i':
+                return buffer.getInt(offset);
+            case 'I':
+                return buffer.getInt(offset) & 0xFFFFFFFFL;
+            case 'q':
+            case 'Q':
+                return buffer.getLong(offset);
+            case 'f':
+                return buffer.getFloat(offset);
+            case 'd':
+                return buffer.getDouble(offset);
+            case 'c':
+                return buffer.getShort(offset) * 0.01f;
+            case 'C':
+                return (buffer.getShort(offset) & 0xFFFF) * 0.01f;
+            case 'e':
+                return buffer.getInt(offset) * 0.01f;
+            case 'E':
+                return (buffer.getInt(offset) & 0xFFFFFFFFL) * 0.01f;
+            case 'L':
+                return buffer.getInt(offset) * 1e-7;
+            default:
+                return Double.NaN;
+        }
+    }
+
+    private Object getObject(MessageFormat format, int field) {
+        double value = format.values[field];
+        switch (format.fieldTypes[field]) {
+            case 'b':
+            case 'B':
+            case 'M':
+            case 'h':
+            case 'H':
+            case 'i':
+                return (int) value;
+            case 'I':
+                return (long) value;
+            case 'q':
+            case 'Q':
+                return format.longValues[field];
+            case 'f':
+            case 'c':
+            case 'C':
+            case 'e':
+            case 'E':
+                return (float) value;
+            case 'd':
+            case 'L':
+                return value;
+            default:
+                return format.stringValues[field];
+        }
+    }
+
+    private static int fieldSize(char fieldType) {
+        switch (fieldType) {
+            case 'b':
+            case 'B':
+            case 'M':
+                return 1;
+            case 'h':
+            case 'H':
+            case 'c':
+            case 'C':
+                return 2;
+            case 'i':
+            case 'I':
+            case 'f':
+            case 'e':
+            case 'E':
+            case 'L':
+            case 'n':
+                return 4;
+            case 'q':
+            case 'Q':
+            case 'd':
+                return 8;
+            case 'N':
+                return 16;
+            case 'Z':
+                return 64;
+            default:
+                return -1;
+        }
+    }
+
+    private String getString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        int end = 0;
+        while (end < length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, 0, end, CHARSET);
+    }
+
+    private void parseFormat(int offset) throws FormatErrorException {
+        int type = buffer.get(offset + HEADER_SIZE) & 0xFF;
+        int length = buffer.get(offset + HEADER_SIZE + 1) & 0xFF;
+        String name = getString(offset + HEADER_SIZE + 2, 4);
+        String format = getString(offset + HEADER_SIZE + 6, 16);
+        String labels = getString(offset + HEADER_SIZE + 22, 64);
+        if (type == FMT_TYPE) {
+            return;
+        }
+        MessageFormat messageFormat = new MessageFormat(type, length, name, format,
+                labels.isEmpty() ? new String[0] : labels.split(","));
+        formats[type] = messageFormat;
+        for (int i = 0; i < messageFormat.fieldNames.length; i++) {
+            fields.put(messageFormat.fieldNames[i], String.valueOf(messageFormat.fieldTypes[i]));
+        }
+        if (TIME_NAME.equals(name)) {
+            timeFormat = messageFormat;
+        }
+    }
+
+    /**
+     * Scan whole log, parse formats and collect offsets of updates.
+     */
+    private void buildIndex() throws FormatErrorException {
+        List<Long> formatOffsets = new ArrayList<Long>();
+        long[] times = new long[1024];
+        long[] offsets = new long[1024];
+        int n = 0;
+        int pos = 0;
+        while (pos + HEADER_SIZE <= limit) {
+            if ((buffer.get(pos) & 0xFF) != HEAD1 || (buffer.get(pos + 1) & 0xFF) != HEAD2) {
+                pos++;
+                continue;
+            }
+            int type = buffer.get(pos + 2) & 0xFF;
+            if (type == FMT_TYPE) {
+                if (pos + FMT_LENGTH > limit) {
+                    break;
+                }
+                parseFormat(pos);
+                formatOffsets.add((long) pos);
+                pos += FMT_LENGTH;
+                continue;
+            }
+            MessageFormat format = formats[type];
+            if (format == null || pos + format.length > limit) {
+                pos++;
+                continue;
+            }
+            if (format == timeFormat) {
+                if (n == times.length) {
+                    times = Arrays.copyOf(times, n * 2);
+                    offsets = Arrays.copyOf(offsets, n * 2);
+                }
+                times[n] = buffer.getLong(pos + HEADER_SIZE);
+                offsets[n] = pos;
+                if (n > 0 && times[n] < times[n - 1]) {
+                    // Time must be monotonic for binary search
+                    times[n] = times[n - 1];
+                }
+                n++;
+            }
+            pos += format.length;
+        }
+        fmtOffsets = new long[formatOffsets.size()];
+        for (int i = 0; i < fmtOffsets.length; i++) {
+            fmtOffsets[i] = formatOffsets.get(i);
+        }
+        updateTimes = Arrays.copyOf(times, n);
+        updateOffsets = Arrays.copyOf(offsets, n);
+    }
+
+    /**
+     * @return true if valid index was read
+     */
+    private boolean readIndex(File indexFile) {
+        if (!indexFile.isFile()) {
+            return false;
+        }
+        try {
+            RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "r");
+            try {
+                ByteBuffer index = indexRaf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                        indexRaf.length()).order(ByteOrder.LITTLE_ENDIAN);
+                if (index.getLong() != INDEX_MAGIC || index.getLong() != file.length() ||
+                        index.getLong() != file.lastModified()) {
+                    return false;
+                }
+                int formatsNum = index.getInt();
+                int updatesNum = index.getInt();
+                LongBuffer longs = index.asLongBuffer();
+                fmtOffsets = new long[formatsNum];
+                longs.get(fmtOffsets);
+                updateTimes = new long[updatesNum];
+                longs.get(updateTimes);
+                updateOffsets = new long[updatesNum];
+                longs.get(updateOffsets);
+                for (long offset : fmtOffsets) {
+                    parseFormat((int) offset);
+                }
+                return true;
+            } finally {
+                indexRaf.close();
+            }
+        } catch (IOException e) {
+            return false;
+        } catch (FormatErrorException e) {
+            return false;
+        } catch (RuntimeException e) {
+            // Truncated or corrupted index
+            return false;
+        }
+    }
+
+    /**
+     * Write index sidecar, errors are ignored, e.g. if log directory is read-only.
+     */
+    private void writeIndex(File indexFile) {
+        ByteBuffer index = ByteBuffer.allocate(32 + (fmtOffsets.length + updateTimes.length * 2) * 8);
+        index.order(ByteOrder.LITTLE_ENDIAN);
+        index.putLong(INDEX_MAGIC);
+        index.putLong(file.length());
+        index.putLong(file.lastModified());
+        index.putInt(fmtOffsets.length);
+        index.putInt(updateTimes.length);
+        LongBuffer longs = index.asLongBuffer();
+        longs.put(fmtOffsets);
+        longs.put(updateTimes);
+        longs.put(updateOffsets);
+        index.position(0);
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        try {
+            RandomAccessFile indexRaf = new RandomAccessFile(tmp, "rw");
+            try {
+                indexRaf.setLength(0);
+                indexRaf.getChannel().write(index);
+            } finally {
+                indexRaf.close();
+            }
+            if (!tmp.renameTo(indexFile)) {
+                indexFile.delete();
+                tmp.renameTo(indexFile);
+            }
+        } catch (IOException e) {
+            System.out.println("Can't write log index " + indexFile + ": " + e);
+            tmp.delete();
+        }
+    }
+}
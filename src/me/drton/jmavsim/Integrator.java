@@ -0,0 +1,16 @@
+package me.drton.jmavsim;
+
+/**
+ * Integration method for DynamicObject dynamics.
+ */
+public interface Integrator {
+    /**
+     * Integrate object state over one step.
+     * Accelerations for the current state are already calculated by DynamicObject.updateAccelerations() when this
+     * method is called.
+     *
+     * @param object object to integrate
+     * @param dt     step [s]
+     */
+    void step(DynamicObject object, double dt);
+}
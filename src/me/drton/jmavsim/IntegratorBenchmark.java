@@ -0,0 +1,105 @@
+package me.drton.jmavsim;
+
+import me.drton.jmavsim.vehicle.AbstractMulticopter;
+import me.drton.jmavsim.vehicle.Quadcopter;
+
+import javax.vecmath.Matrix3d;
+import javax.vecmath.Quat4d;
+import javax.vecmath.Vector3d;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares accuracy and speed of integrators on aggressive maneuver against reference trajectory calculated by RK4
+ * with very small step.
+ */
+public class IntegratorBenchmark {
+    private static final long TICK = 8;             // World update interval, [ms]
+    private static final long DURATION = 5000;      // Maneuver duration, [ms]
+    private static final double REFERENCE_STEP = 0.0001;
+    private static final double[] STEPS = new double[]{0.00025, 0.0005, 0.001, 0.002, 0.004, 0.008};
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) throws Exception {
+        AbstractMulticopter reference = fly(new RK4Integrator(), REFERENCE_STEP);
+        // Warm up JIT
+        for (int i = 0; i < RUNS; i++) {
+            fly(new EulerIntegrator(), STEPS[0]);
+            fly(new SemiImplicitEulerIntegrator(), STEPS[0]);
+            fly(new RK4Integrator(), STEPS[0]);
+        }
+        System.out.println("Reference: RK4, step " + REFERENCE_STEP + " s, final position " + reference.getPosition());
+        System.out.println(String.format("%-14s %8s %14s %14s %12s", "integrator", "step, ms", "pos error, m",
+                "att error, deg", "us/sim s"));
+        for (double step : STEPS) {
+            benchmark("euler", step, reference);
+            benchmark("semi-implicit", step, reference);
+            benchmark("rk4", step, reference);
+        }
+    }
+
+    private static Integrator createIntegrator(String name) {
+        if (name.equals("euler")) {
+            return new EulerIntegrator();
+        } else if (name.equals("semi-implicit")) {
+            return new SemiImplicitEulerIntegrator();
+        } else {
+            return new RK4Integrator();
+        }
+    }
+
+    private static void benchmark(String name, double step, AbstractMulticopter reference) throws Exception {
+        AbstractMulticopter vehicle = null;
+        long timeBest = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long timeStart = System.nanoTime();
+            vehicle = fly(createIntegrator(name), step);
+            timeBest = Math.min(timeBest, System.nanoTime() - timeStart);
+        }
+        Vector3d posErr = new Vector3d();
+        posErr.sub(vehicle.getPosition(), reference.getPosition());
+        Quat4d qRef = reference.getAttitude();
+        Quat4d q = vehicle.getAttitude();
+        double dot = Math.min(1.0, Math.abs(qRef.x * q.x + qRef.y * q.y + qRef.z * q.z + qRef.w * q.w));
+        double attErr = Math.toDegrees(2.0 * Math.acos(dot));
+        System.out.println(String.format("%-14s %8.2f %14.3e %14.3e %12.1f", name, step * 1000.0, posErr.length(),
+                attErr, timeBest / 1000.0 / (DURATION / 1000.0)));
+    }
+
+    private static AbstractMulticopter fly(Integrator integrator, double step) throws Exception {
+        World world = new World();
+        SimpleEnvironment environment = new SimpleEnvironment(world);
+        environment.setWindDeviation(0.0);
+        world.addObject(environment);
+        // Rotors without spin-up lag: rotor filter is updated once per step and would hide integrator error
+        AbstractMulticopter vehicle = new Quadcopter(world, "models/3dr_arducopter_quad_x.obj", "x", 0.33 / 2, 4.0,
+                0.05, 1e-9, new Vector3d());
+        vehicle.setMass(0.8);
+        Matrix3d I = new Matrix3d();
+        I.m00 = 0.005;
+        I.m11 = 0.005;
+        I.m22 = 0.009;
+        vehicle.setMomentOfInertia(I);
+        vehicle.setDragMove(0.02);
+        vehicle.setDragRotate(0.01);
+        vehicle.setIntegrator(integrator);
+        vehicle.setPhysicsStep(step);
+        vehicle.setMaxSubsteps(Integer.MAX_VALUE);
+        vehicle.getPosition().set(0.0, 0.0, -50.0);
+        world.addObject(vehicle);
+        List<Double> control = new ArrayList<Double>();
+        for (int i = 0; i < 4; i++) {
+            control.add(0.0);
+        }
+        for (long t = 0; t <= DURATION; t += TICK) {
+            // Oscillating differential thrust: fast roll, pitch and yaw changes
+            double s = t / 1000.0;
+            for (int i = 0; i < 4; i++) {
+                control.set(i, 0.5 + 0.15 * Math.sin(2.0 * Math.PI * 1.5 * s + i * Math.PI / 2.0));
+            }
+            vehicle.setControl(control);
+            world.update(t);
+        }
+        return vehicle;
+    }
+}
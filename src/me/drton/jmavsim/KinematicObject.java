@@ -1,21 +1,33 @@
 package me.drton.jmavsim;
 
-import com.sun.j3d.loaders.Scene;
-import com.sun.j3d.loaders.objectfile.ObjectFile;
+import com.sun.j3d.utils.geometry.Box;
 
+import javax.media.j3d.Appearance;
+import javax.media.j3d.BoundingBox;
+import javax.media.j3d.BoundingSphere;
 import javax.media.j3d.BranchGroup;
+import javax.media.j3d.DistanceLOD;
+import javax.media.j3d.Link;
+import javax.media.j3d.Material;
+import javax.media.j3d.Node;
+import javax.media.j3d.Switch;
 import javax.media.j3d.Transform3D;
 import javax.media.j3d.TransformGroup;
+import javax.vecmath.Color3f;
 import javax.vecmath.Matrix3d;
+import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
+import java.io.File;
 import java.io.FileNotFoundException;
 
 /**
  * Abstract kinematic object class.
  * Stores all kinematic parameters (attitude, attitude rates, position, velocity, acceleration) but doesn't calculate it.
  * These parameters may be set directly for objects moving by fixed trajectory or simulated from external forces (see DynamicObject).
+ * 3D model is created lazily on first request of branch group, so objects may be simulated without visualizer and
+ * without display.
  */
-public abstract class KinematicObject extends WorldObject {
+public abstract class KinematicObject extends WorldObject implements Snapshottable {
     protected Vector3d position = new Vector3d();
     protected Vector3d velocity = new Vector3d();
     protected Vector3d acceleration = new Vector3d();
@@ -25,40 +37,134 @@ public abstract class KinematicObject extends WorldObject {
     private Transform3D transform;
     protected TransformGroup transformGroup;
     private BranchGroup branchGroup;
+    private String modelFile = null;
+    private double lodDistance = 30.0;  // Camera distance to switch model to low detail, [m]
 
     public KinematicObject(World world) {
         super(world);
         rotation.setIdentity();
-        transformGroup = new TransformGroup();
-        transformGroup.setCapability(TransformGroup.ALLOW_TRANSFORM_WRITE);
-        transform = new Transform3D();
-        transformGroup.setTransform(transform);
-        branchGroup = new BranchGroup();
-        branchGroup.addChild(transformGroup);
     }
 
     /**
-     * Helper method to create model from .obj file.
+     * Helper method to create model from .obj file. File is checked immediately but loaded only when 3D model is
+     * created, geometry is cached and shared between objects with the same model (see ModelCache).
      *
      * @param modelFile file name
      * @throws java.io.FileNotFoundException
      */
     protected void modelFromFile(String modelFile) throws FileNotFoundException {
-        ObjectFile objectFile = new ObjectFile();
-        Scene scene = objectFile.load(modelFile);
-        transformGroup.addChild(scene.getSceneGroup());
+        if (!new File(modelFile).isFile()) {
+            throw new FileNotFoundException(modelFile);
+        }
+        this.modelFile = modelFile;
+    }
+
+    /**
+     * Set camera distance to switch model from file to low detail box of the same size.
+     *
+     * @param lodDistance distance [m], 0 to always use full model
+     */
+    public void setLODDistance(double lodDistance) {
+        this.lodDistance = lodDistance;
+    }
+
+    /**
+     * Add 3D model of the object to transform group. Called once, when branch group is created.
+     *
+     * @param transformGroup transform group of the object
+     */
+    protected void createModel(TransformGroup transformGroup) {
+        if (modelFile != null) {
+            try {
+                ModelCache.Model model = ModelCache.getModel(modelFile);
+                addModelWithLOD(transformGroup, new Link(model.getSharedGroup()), model.getBounds());
+            } catch (FileNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Add model that is replaced by box of the same size when camera is farther than LOD distance.
+     *
+     * @param bounds bounds of the model, passed explicitly because bounds of Link are not known until it is live
+     */
+    protected void addModelWithLOD(TransformGroup transformGroup, Node model, BoundingBox bounds) {
+        if (lodDistance <= 0.0) {
+            transformGroup.addChild(model);
+            return;
+        }
+        Switch lodSwitch = new Switch(0);
+        lodSwitch.setCapability(Switch.ALLOW_SWITCH_WRITE);
+        lodSwitch.addChild(model);
+        lodSwitch.addChild(createLowDetailModel(bounds));
+        DistanceLOD lod = new DistanceLOD(new float[]{(float) lodDistance});
+        lod.addSwitch(lodSwitch);
+        lod.setSchedulingBounds(new BoundingSphere(new Point3d(), Double.MAX_VALUE));
+        transformGroup.addChild(lodSwitch);
+        transformGroup.addChild(lod);
+    }
+
+    private static Node createLowDetailModel(BoundingBox bounds) {
+        Point3d lower = new Point3d();
+        Point3d upper = new Point3d();
+        bounds.getLower(lower);
+        bounds.getUpper(upper);
+        Appearance appearance = new Appearance();
+        appearance.setMaterial(new Material());
+        Box box = new Box((float) (upper.x - lower.x) / 2, (float) (upper.y - lower.y) / 2,
+                (float) (upper.z - lower.z) / 2, appearance);
+        Transform3D transform = new Transform3D();
+        transform.setTranslation(new Vector3d((lower.x + upper.x) / 2, (lower.y + upper.y) / 2,
+                (lower.z + upper.z) / 2));
+        TransformGroup boxGroup = new TransformGroup(transform);
+        boxGroup.addChild(box);
+        return boxGroup;
     }
 
     public BranchGroup getBranchGroup() {
+        if (branchGroup == null) {
+            transformGroup = new TransformGroup();
+            transformGroup.setCapability(TransformGroup.ALLOW_TRANSFORM_WRITE);
+            transform = new Transform3D();
+            transformGroup.setTransform(transform);
+            createModel(transformGroup);
+            branchGroup = new BranchGroup();
+            branchGroup.addChild(transformGroup);
+        }
         return branchGroup;
     }
 
-    public void updateBranchGroup() {
+    /**
+     * Update transform of 3D model, called by visualizer with pose from snapshot.
+     */
+    public void updateBranchGroup(Vector3d position, Matrix3d rotation) {
+        if (branchGroup == null) {
+            return;
+        }
         transform.setTranslation(position);
         transform.setRotationScale(rotation);
         transformGroup.setTransform(transform);
     }
 
+    @Override
+    public void saveState(SimulationSnapshot snapshot) {
+        snapshot.putTuple(position);
+        snapshot.putTuple(velocity);
+        snapshot.putTuple(acceleration);
+        snapshot.putMatrix(rotation);
+        snapshot.putTuple(rotationRate);
+    }
+
+    @Override
+    public void restoreState(SimulationSnapshot snapshot) {
+        snapshot.getTuple(position);
+        snapshot.getTuple(velocity);
+        snapshot.getTuple(acceleration);
+        snapshot.getMatrix(rotation);
+        snapshot.getTuple(rotationRate);
+    }
+
     public Vector3d getPosition() {
         return position;
     }
@@ -0,0 +1,122 @@
+package me.drton.jmavsim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lockstep simulation clock. Time advances by fixed step only when autopilot answered previous step with
+ * HIL_CONTROLS, so simulation runs as fast as autopilot can respond and doesn't depend on wall clock.
+ * Lockstep engages on first HIL_CONTROLS received, before it simulator must advance the clock by itself.
+ * With multiple autopilots (see addParticipant()) the step is acknowledged when all of them answered, lockstep
+ * engages when all of them sent controls at least once.
+ */
+public class LockstepClock implements SimulationClock {
+    private final long step;
+    private volatile long time;
+    private boolean engaged = false;
+    private List<Integer> participants = new ArrayList<Integer>();
+    private boolean[] participantSeen = new boolean[0];
+    private boolean[] participantAcknowledged = new boolean[0];
+    private int seenCount = 0;
+    private int acknowledgedCount = 0;
+
+    /**
+     * @param startTime initial simulation time [ms]
+     * @param step      simulation time step [ms]
+     */
+    public LockstepClock(long startTime, long step) {
+        this.time = startTime;
+        this.step = step;
+    }
+
+    /**
+     * Add autopilot that participates in lockstep. If no participants added, controls from any system acknowledge
+     * the step.
+     *
+     * @param sysId MAVLink system ID of autopilot
+     */
+    public synchronized void addParticipant(int sysId) {
+        participants.add(sysId);
+        participantSeen = new boolean[participants.size()];
+        participantAcknowledged = new boolean[participants.size()];
+        seenCount = 0;
+        acknowledgedCount = 0;
+    }
+
+    @Override
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Set time, e.g. when simulation restored from snapshot. Acknowledge of current step is kept.
+     *
+     * @param time simulation time [ms]
+     */
+    public synchronized void setTime(long time) {
+        this.time = time;
+    }
+
+    public long getStep() {
+        return step;
+    }
+
+    /**
+     * Advance time by one step and wait for new acknowledge.
+     */
+    public synchronized void advance() {
+        for (int i = 0; i < participantAcknowledged.length; i++) {
+            participantAcknowledged[i] = false;
+        }
+        acknowledgedCount = 0;
+        time += step;
+    }
+
+    /**
+     * Called when autopilot sent controls. Autopilot stamps controls with time of HIL_SENSOR they were computed
+     * from, so controls older than current step (late or duplicate answer to previous step) don't acknowledge it,
+     * but still engage lockstep.
+     *
+     * @param sysId    MAVLink system ID of autopilot
+     * @param timeUsec time_usec of HIL_CONTROLS [us]
+     */
+    public synchronized void controlsReceived(int sysId, long timeUsec) {
+        boolean current = timeUsec >= time * 1000;
+        if (participants.isEmpty()) {
+            engaged = true;
+            if (current) {
+                acknowledgedCount = 1;
+            }
+            return;
+        }
+        int i = participants.indexOf(sysId);
+        if (i < 0) {
+            return;
+        }
+        if (!participantSeen[i]) {
+            participantSeen[i] = true;
+            seenCount++;
+            if (seenCount == participants.size()) {
+                engaged = true;
+            }
+        }
+        if (current && !participantAcknowledged[i]) {
+            participantAcknowledged[i] = true;
+            acknowledgedCount++;
+        }
+    }
+
+    /**
+     * @return true if autopilot is in lockstep with simulator
+     */
+    public synchronized boolean isEngaged() {
+        return engaged;
+    }
+
+    /**
+     * @return true if clock may be advanced to the next step
+     */
+    public synchronized boolean isStepAcknowledged() {
+        return acknowledgedCount >= Math.max(1, participants.size());
+    }
+}
@@ -1,33 +1,98 @@
 package me.drton.jmavsim;
 
-import me.drton.jmavlib.geo.LatLonAlt;
 import me.drton.jmavlib.log.FormatErrorException;
-import me.drton.jmavlib.log.LogReader;
-import me.drton.jmavlib.log.PX4LogReader;
 
 import javax.vecmath.Vector3d;
-import java.io.EOFException;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Sensors object that uses PX4 log file replay as source.
+ * Replay may start from any time of the log and run faster or slower than simulation time. Log is decoded ahead in
+ * background thread (see LogPrefetcher), so update never waits for disk.
  */
 public class LogPlayerSensors implements Sensors {
-    private LogReader logReader = null;
-    private long logStart = 0;
+    private static final String[] COLUMNS = new String[]{
+            "IMU.AccX", "IMU.AccY", "IMU.AccZ", "IMU.GyroX", "IMU.GyroY", "IMU.GyroZ", "IMU.MagX", "IMU.MagY",
+            "IMU.MagZ", "SENS.BaroAlt", "GPS.Lat", "GPS.Lon", "GPS.Alt", "GPS.EPH", "GPS.EPV", "GPS.VelN", "GPS.VelE",
+            "GPS.VelD", "GPS.Fix", "GPS.GPSTime"};
+    // Indexes in COLUMNS
+    private static final int ACC = 0;
+    private static final int GYRO = 3;
+    private static final int MAG = 6;
+    private static final int BARO_ALT = 9;
+    private static final int GPS_LAT = 10;
+    private static final int GPS_LON = 11;
+    private static final int GPS_ALT = 12;
+    private static final int GPS_EPH = 13;
+    private static final int GPS_EPV = 14;
+    private static final int GPS_VEL = 15;
+    private static final int GPS_FIX = 18;
+    private static final int GPS_TIME = 19;
+    private static final int PREFETCH_SIZE = 4096;  // Max number of log updates decoded ahead
+
+    private LogPrefetcher prefetcher = null;
+    private long timeStart = 0;     // Simulation time of replay start [ms]
+    private long logTimeStart = 0;  // Log time of replay start [ms]
+    private double speed = 1.0;
     private long logT = 0;
+    private final int[] columns = new int[COLUMNS.length];  // Column handles
+    private double[] row = new double[0];
+    private boolean[] updated = new boolean[0];
     private Vector3d acc = new Vector3d();
     private Vector3d gyro = new Vector3d();
     private Vector3d mag = new Vector3d();
     private double baroAlt;
     private GNSSReport gnss = new GNSSReport();
-    private boolean gpsUpdated = false;
 
     void openLog(String fileName, long startTime) throws IOException, FormatErrorException {
-        logReader = new PX4LogReader(fileName);
-        logStart = startTime - logReader.getStartMicroseconds() / 1000;
+        openLog(fileName, startTime, 0);
+    }
+
+    /**
+     * Open log and seek to given log time.
+     *
+     * @param startTime simulation time of replay start [ms]
+     * @param logOffset log time to start replay from, relative to log start [ms]
+     */
+    void openLog(String fileName, long startTime, long logOffset) throws IOException, FormatErrorException {
+        close();
+        IndexedLogReader logReader = new IndexedLogReader(fileName);
+        for (int i = 0; i < COLUMNS.length; i++) {
+            columns[i] = logReader.addColumn(COLUMNS[i]);
+        }
+        row = new double[logReader.getColumnsNum()];
+        updated = new boolean[logReader.getColumnsNum()];
+        timeStart = startTime;
+        logTimeStart = logReader.getStartMicroseconds() / 1000 + logOffset;
+        logReader.seek(logTimeStart * 1000);
+        logT = logTimeStart;
+        prefetcher = new LogPrefetcher(logReader, PREFETCH_SIZE);
+        prefetcher.start();
+    }
+
+    /**
+     * Stop replay and close the log.
+     */
+    public void close() throws IOException {
+        if (prefetcher != null) {
+            prefetcher.close();
+            prefetcher = null;
+        }
+    }
+
+    /**
+     * @return log prefetcher with replay metrics, or null if log is not opened
+     */
+    public LogPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Set replay speed, e.g. 10 to replay log 10 times faster than simulation time.
+     */
+    public void setSpeed(double speed) {
+        this.speed = speed;
     }
 
     @Override
@@ -59,66 +124,57 @@ public class LogPlayerSensors implements Sensors {
         return gnss;
     }
 
-    @Override
-    public boolean isGPSUpdated() {
-        boolean res = gpsUpdated;
-        gpsUpdated = false;
-        return res;
-    }
-
     @Override
     public void update(long t) {
-        if (logReader != null) {
-            Map<String, Object> logData = new HashMap<String, Object>();
-            while (logStart + logT < t) {
-                try {
-                    logT = logReader.readUpdate(logData) / 1000;
-                } catch (EOFException e) {
-                    break;
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    break;
-                } catch (FormatErrorException e) {
-                    e.printStackTrace();
+        if (prefetcher != null) {
+            Arrays.fill(updated, false);
+            long logTimeTarget = logTimeStart + (long) ((t - timeStart) * speed);
+            while (logT < logTimeTarget) {
+                long time = prefetcher.readUpdate(row, updated);
+                if (time < 0) {
+                    // End of log or underrun, continue on next update
                     break;
                 }
+                logT = time / 1000;
+            }
+            if (isUpdated(ACC, 3)) {
+                acc.set(get(ACC), get(ACC + 1), get(ACC + 2));
             }
-            if (logData.containsKey("IMU.AccX") &&
-                    logData.containsKey("IMU.AccY") &&
-                    logData.containsKey("IMU.AccZ")) {
-                acc.set((Float) logData.get("IMU.AccX"), (Float) logData.get("IMU.AccY"),
-                        (Float) logData.get("IMU.AccZ"));
+            if (isUpdated(GYRO, 3)) {
+                gyro.set(get(GYRO), get(GYRO + 1), get(GYRO + 2));
             }
-            if (logData.containsKey("IMU.GyroX") &&
-                    logData.containsKey("IMU.GyroY") &&
-                    logData.containsKey("IMU.GyroZ")) {
-                gyro.set((Float) logData.get("IMU.GyroX"), (Float) logData.get("IMU.GyroY"),
-                        (Float) logData.get("IMU.GyroZ"));
+            if (isUpdated(MAG, 3)) {
+                mag.set(get(MAG), get(MAG + 1), get(MAG + 2));
             }
-            if (logData.containsKey("IMU.MagX") &&
-                    logData.containsKey("IMU.MagY") &&
-                    logData.containsKey("IMU.MagZ")) {
-                mag.set((Float) logData.get("IMU.MagX"), (Float) logData.get("IMU.MagY"),
-                        (Float) logData.get("IMU.MagZ"));
+            if (isUpdated(BARO_ALT, 1)) {
+                baroAlt = get(BARO_ALT);
             }
-            if (logData.containsKey("SENS.BaroAlt")) {
-                baroAlt = (Float) logData.get("SENS.BaroAlt");
+            if (isUpdated(GPS_LAT, 3)) {
+                gnss.lat = get(GPS_LAT);
+                gnss.lon = get(GPS_LON);
+                gnss.alt = get(GPS_ALT);
+                gnss.eph = get(GPS_EPH);
+                gnss.epv = get(GPS_EPV);
+                gnss.velocity.set(get(GPS_VEL), get(GPS_VEL + 1), get(GPS_VEL + 2));
+                gnss.fix = (int) get(GPS_FIX);
+                gnss.time = (long) get(GPS_TIME);
             }
-            if (logData.containsKey("GPS.Lat") &&
-                    logData.containsKey("GPS.Lon") &&
-                    logData.containsKey("GPS.Alt")) {
-                gpsUpdated = true;
-                gnss.position = new LatLonAlt(((Number) logData.get("GPS.Lat")).doubleValue(),
-                        ((Number) logData.get("GPS.Lon")).doubleValue(),
-                        ((Number) logData.get("GPS.Alt")).doubleValue());
-                gnss.eph = ((Number) logData.get("GPS.EPH")).doubleValue();
-                gnss.epv = ((Number) logData.get("GPS.EPV")).doubleValue();
-                gnss.velocity = new Vector3d(((Number) logData.get("GPS.VelN")).doubleValue(),
-                        ((Number) logData.get("GPS.VelE")).doubleValue(),
-                        ((Number) logData.get("GPS.VelD")).doubleValue());
-                gnss.fix = (Integer) logData.get("GPS.Fix");
-                gnss.time = (Long) logData.get("GPS.GPSTime");
+        }
+    }
+
+    private double get(int column) {
+        return row[columns[column]];
+    }
+
+    /**
+     * @return true if all n columns starting from given one were updated
+     */
+    private boolean isUpdated(int column, int n) {
+        for (int i = column; i < column + n; i++) {
+            if (!updated[columns[i]]) {
+                return false;
             }
         }
+        return true;
     }
 }
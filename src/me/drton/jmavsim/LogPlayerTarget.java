@@ -2,21 +2,19 @@ package me.drton.jmavsim;
 
 import me.drton.jmavlib.geo.GlobalPositionProjector;
 import me.drton.jmavlib.geo.LatLonAlt;
-import me.drton.jmavlib.log.FormatErrorException;
-import me.drton.jmavlib.log.LogReader;
 
 import javax.vecmath.Vector3d;
-import java.io.EOFException;
 import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * User: ton Date: 04.05.14 Time: 23:41
  */
 public class LogPlayerTarget extends Target {
-    private LogReader logReader = null;
+    private static final int PREFETCH_SIZE = 1024;  // Max number of log updates decoded ahead
+
+    private IndexedLogReader logReader = null;
+    private LogPrefetcher prefetcher = null;
     private long logStart = 0;
     private long timeStart = 0;
     private long logT = 0;
@@ -27,21 +25,69 @@ public class LogPlayerTarget extends Target {
     private GlobalPositionProjector projector = null;
     private Vector3d postitionPrev = new Vector3d();
     private long timePrev = 0;
+    private int[] posColumns = null;   // Column handles of posKeys
+    private int[] velColumns = null;   // Column handles of velKeys
+    private double[] row = new double[0];
+    private boolean[] updated = new boolean[0];
 
     public LogPlayerTarget(World world, double size) throws FileNotFoundException {
         super(world, size);
     }
 
-    public void openLog(LogReader logReader) {
+    /**
+     * Set log reader, log keys must be set before first update. Columns are registered in the reader on first update,
+     * log is decoded in background thread since then.
+     */
+    public void openLog(IndexedLogReader logReader) {
+        if (prefetcher != null) {
+            prefetcher.stop();
+            prefetcher = null;
+        }
         this.logReader = logReader;
         logStart = timeStart - logReader.getStartMicroseconds() / 1000;
     }
 
+    /**
+     * Set log keys of position and velocity, must be called before first update.
+     *
+     * @param velKeys velocity keys, or null to calculate velocity from position changes
+     */
     public void setLogKeys(String[] posKeys, String[] velKeys) {
+        if (prefetcher != null) {
+            throw new IllegalStateException("Log keys can't be changed after replay started");
+        }
         this.posKeys = posKeys;
         this.velKeys = velKeys;
     }
 
+    /**
+     * Register columns in the reader, called once before prefetcher starts, so decoding thread never sees columns
+     * changing.
+     */
+    private void registerColumns() {
+        posColumns = addColumns(posKeys);
+        velColumns = velKeys != null ? addColumns(velKeys) : null;
+        row = new double[logReader.getColumnsNum()];
+        updated = new boolean[logReader.getColumnsNum()];
+    }
+
+    private int[] addColumns(String[] keys) {
+        int[] handles = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            handles[i] = logReader.addColumn(keys[i]);
+        }
+        return handles;
+    }
+
+    private boolean isUpdated(int[] handles) {
+        for (int handle : handles) {
+            if (!updated[handle]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void setGlobalFrame(boolean globalFrame) {
         this.globalFrame = globalFrame;
         this.projector = new GlobalPositionProjector();
@@ -62,37 +108,35 @@ public class LogPlayerTarget extends Target {
     @Override
     public void update(long t) {
         if (logReader != null) {
-            Map<String, Object> logData = new HashMap<String, Object>();
+            if (prefetcher == null) {
+                registerColumns();
+                prefetcher = new LogPrefetcher(logReader, PREFETCH_SIZE);
+                prefetcher.start();
+            }
+            Arrays.fill(updated, false);
             while (logStart + logT < t) {
-                try {
-                    logT = logReader.readUpdate(logData) / 1000;
-                } catch (EOFException e) {
-                    break;
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    break;
-                } catch (FormatErrorException e) {
-                    e.printStackTrace();
+                long time = prefetcher.readUpdate(row, updated);
+                if (time < 0) {
+                    // End of log or underrun, continue on next update
                     break;
                 }
+                logT = time / 1000;
             }
-            if (logData.containsKey(posKeys[0]) &&
-                    logData.containsKey(posKeys[1]) &&
-                    logData.containsKey(posKeys[2])) {
-                double[] v = new double[]{
-                        ((Number) logData.get(posKeys[0])).doubleValue(),
-                        ((Number) logData.get(posKeys[1])).doubleValue(),
-                        ((Number) logData.get(posKeys[2])).doubleValue()};
+            if (isUpdated(posColumns)) {
+                double x = row[posColumns[0]];
+                double y = row[posColumns[1]];
+                double z = row[posColumns[2]];
                 if (globalFrame) {
-                    LatLonAlt latLonAlt = new LatLonAlt(v[0], v[1], v[2]);
+                    LatLonAlt latLonAlt = new LatLonAlt(x, y, z);
                     if (!projector.isInited()) {
                         projector.init(latLonAlt);
                     }
                     position.add(new Vector3d(projector.project(latLonAlt)), positionOffset);
                 } else {
-                    position.add(new Vector3d(v), positionOffset);
+                    position.set(x, y, z);
+                    position.add(positionOffset);
                 }
-                if (velKeys == null) {
+                if (velColumns == null) {
                     // Calculate velocity from position changes
                     velocity.sub(position, postitionPrev);
                     velocity.scale(1000.0 / (logT - timePrev));
@@ -100,14 +144,9 @@ public class LogPlayerTarget extends Target {
                     timePrev = logT;
                 }
             }
-            if (velKeys != null) {
+            if (velColumns != null && isUpdated(velColumns)) {
                 // Use velocity from log
-                if (logData.containsKey(velKeys[0]) &&
-                        logData.containsKey(velKeys[1]) &&
-                        logData.containsKey(velKeys[2])) {
-                    velocity.set((Float) logData.get(velKeys[0]), (Float) logData.get(velKeys[1]),
-                            (Float) logData.get(velKeys[2]));
-                }
+                velocity.set(row[velColumns[0]], row[velColumns[1]], row[velColumns[2]]);
             }
         }
     }
@@ -0,0 +1,167 @@
+package me.drton.jmavsim;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decodes log updates in background thread into bounded ring buffer ahead of replay, so replay in world update never
+ * waits for disk or decoding. Buffer size limits lookahead, decoding thread waits when the buffer is full
+ * (back-pressure), replay doesn't wait when it is empty (underrun) and gets the update on next tick.
+ * <p/>
+ * Columns must be registered in the reader and reader must be positioned (seek) before start, only one consumer
+ * thread is allowed.
+ */
+public class LogPrefetcher implements Runnable {
+    private static final long WAIT_TIME = 1000000;  // Decoding thread wait time when buffer is full [ns]
+
+    private final IndexedLogReader logReader;
+    private final int size;
+    private final long[] times;         // [us]
+    private final double[][] rows;
+    private final boolean[][] updated;
+    private final AtomicLong head = new AtomicLong();   // Next update to read, owned by consumer
+    private final AtomicLong tail = new AtomicLong();   // Next update to write, owned by decoding thread
+    private volatile boolean finished = false;
+    private volatile boolean stopped = false;
+    private Thread thread = null;
+    private final AtomicLong backPressureNum = new AtomicLong();
+    private long underrunsNum = 0;
+    private int bufferedMin = Integer.MAX_VALUE;
+
+    /**
+     * @param logReader log reader with registered columns
+     * @param size      buffer size, max number of updates decoded ahead
+     */
+    public LogPrefetcher(IndexedLogReader logReader, int size) {
+        this.logReader = logReader;
+        this.size = size;
+        int columnsNum = logReader.getColumnsNum();
+        times = new long[size];
+        rows = new double[size][columnsNum];
+        updated = new boolean[size][columnsNum];
+    }
+
+    public void start() {
+        thread = new Thread(this, "LogPrefetcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop decoding thread and wait until it exits, reader may be used by caller after this.
+     */
+    public void stop() {
+        stopped = true;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * Stop decoding thread and close the reader.
+     */
+    public void close() throws IOException {
+        stop();
+        logReader.close();
+    }
+
+    @Override
+    public void run() {
+        while (!stopped) {
+            long t = tail.get();
+            if (t - head.get() >= size) {
+                backPressureNum.incrementAndGet();
+                LockSupport.parkNanos(WAIT_TIME);
+                continue;
+            }
+            int i = (int) (t % size);
+            Arrays.fill(updated[i], false);
+            try {
+                times[i] = logReader.readUpdate(rows[i], updated[i]);
+            } catch (EOFException e) {
+                break;
+            }
+            tail.lazySet(t + 1);
+        }
+        finished = true;
+    }
+
+    /**
+     * Get next decoded update, never blocks. Values of the columns present in the update are written to row and their
+     * updated flags are set, values and flags of other columns are not changed.
+     *
+     * @return time of the update [us], or -1 if no decoded update available
+     */
+    public long readUpdate(double[] row, boolean[] rowUpdated) {
+        long h = head.get();
+        if (h == tail.get()) {
+            if (!finished) {
+                underrunsNum++;
+            }
+            return -1;
+        }
+        int i = (int) (h % size);
+        double[] values = rows[i];
+        boolean[] flags = updated[i];
+        for (int c = 0; c < values.length; c++) {
+            if (flags[c]) {
+                row[c] = values[c];
+                rowUpdated[c] = true;
+            }
+        }
+        long time = times[i];
+        head.lazySet(h + 1);
+        bufferedMin = Math.min(bufferedMin, (int) (tail.get() - h - 1));
+        return time;
+    }
+
+    /**
+     * @return true if end of the log reached and all updates were read
+     */
+    public boolean isFinished() {
+        return finished && head.get() == tail.get();
+    }
+
+    /**
+     * @return number of updates decoded ahead
+     */
+    public int getBufferedNum() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * @return min number of updates that remained in buffer after read, low values mean replay is close to underrun
+     */
+    public int getBufferedMin() {
+        return bufferedMin;
+    }
+
+    /**
+     * @return number of times decoding thread waited because buffer was full
+     */
+    public long getBackPressureNum() {
+        return backPressureNum.get();
+    }
+
+    /**
+     * @return number of reads that found buffer empty before end of the log
+     */
+    public long getUnderrunsNum() {
+        return underrunsNum;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("buffered: %s/%s, min: %s, back-pressure: %s, underruns: %s", getBufferedNum(), size,
+                bufferedMin == Integer.MAX_VALUE ? 0 : bufferedMin, getBackPressureNum(), underrunsNum);
+    }
+}
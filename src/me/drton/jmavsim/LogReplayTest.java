@@ -0,0 +1,201 @@
+package me.drton.jmavsim;
+
+import me.drton.jmavlib.log.FormatErrorException;
+import me.drton.jmavsim.vehicle.AbstractMulticopter;
+import me.drton.jmavsim.vehicle.Quadcopter;
+
+import javax.vecmath.Matrix3d;
+import javax.vecmath.Vector3d;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+/**
+ * Round trip check of log replay: flight is recorded with FlightRecorder, then read back with IndexedLogReader and
+ * LogPrefetcher. Checks index sidecar reuse and rebuild, seek before, inside and past the log, decoded values and
+ * prefetcher end of log, underrun and back-pressure counters.
+ * Prints results of the checks, exits with code 1 on failure.
+ * <p/>
+ * Usage: LogReplayTest
+ */
+public class LogReplayTest {
+    private static final long TIME_START = 1000;    // Simulation time of the first record [ms]
+    private static final long TICK = 4;             // [ms]
+    private static final int UPDATES = 2000;
+    private static final long INDEX_MTIME = 1000000;    // Marker modification time of index sidecar [ms]
+    private static final long TIMEOUT = 5000000000L;    // [ns]
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        File logFile = File.createTempFile("jmavsim-replay", ".px4log");
+        File indexFile = new File(logFile.getPath() + IndexedLogReader.INDEX_SUFFIX);
+        logFile.deleteOnExit();
+        indexFile.deleteOnExit();
+        float[] recordedZ = record(logFile);
+
+        // Index sidecar: built on first open, reused while log is not changed, rebuilt otherwise
+        indexFile.delete();
+        new IndexedLogReader(logFile.getPath()).close();
+        check(indexFile.isFile(), "index sidecar written on first open");
+        check(isIndexReused(logFile, indexFile), "index sidecar reused for unchanged log");
+        logFile.setLastModified(logFile.lastModified() - 10000);
+        check(!isIndexReused(logFile, indexFile), "index sidecar rebuilt after log modification time changed");
+        long mtime = logFile.lastModified();
+        FileOutputStream out = new FileOutputStream(logFile, true);
+        out.write(new byte[]{0, 1, 2, 3});
+        out.close();
+        logFile.setLastModified(mtime);
+        check(!isIndexReused(logFile, indexFile), "index sidecar rebuilt after log length changed");
+
+        // Seek and typed read
+        IndexedLogReader reader = new IndexedLogReader(logFile.getPath());
+        int z = reader.addColumn("LPOS.Z");
+        double[] row = new double[reader.getColumnsNum()];
+        boolean[] updated = new boolean[reader.getColumnsNum()];
+        long start = TIME_START * 1000;
+        long end = (TIME_START + (UPDATES - 1) * TICK) * 1000;
+        check(reader.getUpdatesNum() == UPDATES, "updates number: " + reader.getUpdatesNum());
+        check(reader.getStartMicroseconds() == start && reader.getSizeMicroseconds() == end - start,
+                "log range");
+        check(!reader.seek(start - 1000) && reader.readUpdate(row, updated) == start,
+                "seek before log start positions to first update");
+        int k = UPDATES / 2;
+        long tk = (TIME_START + k * TICK) * 1000;
+        check(reader.seek(tk) && reader.readUpdate(row, updated) == tk, "seek to update time");
+        Arrays.fill(updated, false);
+        check(reader.seek(tk + 1000) && reader.readUpdate(row, updated) == tk,
+                "seek between updates positions to previous update");
+        check(updated[z] && (float) row[z] == recordedZ[k], "decoded value matches recorded: " + row[z] + " " +
+                recordedZ[k]);
+        check(reader.readUpdate(row, updated) == tk + TICK * 1000, "update after seek");
+        check(!reader.seek(end + 1000) && reader.readUpdate(row, updated) == end,
+                "seek past log end positions to last update");
+        boolean eof = false;
+        try {
+            reader.readUpdate(row, updated);
+        } catch (EOFException e) {
+            eof = true;
+        }
+        check(eof, "end of log after last update");
+        reader.close();
+
+        // Prefetcher with buffer smaller than the log
+        reader = new IndexedLogReader(logFile.getPath());
+        z = reader.addColumn("LPOS.Z");
+        row = new double[reader.getColumnsNum()];
+        updated = new boolean[reader.getColumnsNum()];
+        LogPrefetcher prefetcher = new LogPrefetcher(reader, 16);
+        check(prefetcher.readUpdate(row, updated) < 0 && prefetcher.getUnderrunsNum() == 1,
+                "underrun counted when buffer is empty");
+        prefetcher.start();
+        long waitStart = System.nanoTime();
+        while (prefetcher.getBackPressureNum() == 0 && System.nanoTime() - waitStart < TIMEOUT) {
+            Thread.yield();
+        }
+        check(prefetcher.getBackPressureNum() > 0 && prefetcher.getBufferedNum() == 16,
+                "back-pressure when buffer is full: " + prefetcher);
+        int readNum = 0;
+        boolean ordered = true;
+        boolean valuesMatch = true;
+        waitStart = System.nanoTime();
+        while (!prefetcher.isFinished() && System.nanoTime() - waitStart < TIMEOUT) {
+            Arrays.fill(updated, false);
+            long t = prefetcher.readUpdate(row, updated);
+            if (t < 0) {
+                Thread.yield();
+                continue;
+            }
+            ordered &= t == (TIME_START + readNum * TICK) * 1000;
+            valuesMatch &= updated[z] && (float) row[z] == recordedZ[readNum];
+            readNum++;
+        }
+        check(prefetcher.isFinished() && readNum == UPDATES, "all updates read: " + readNum);
+        check(ordered && valuesMatch, "prefetched updates are in order and match recorded values");
+        long underruns = prefetcher.getUnderrunsNum();
+        check(prefetcher.readUpdate(row, updated) < 0 && prefetcher.getUnderrunsNum() == underruns,
+                "end of log is not counted as underrun");
+        System.out.println("Prefetcher: " + prefetcher);
+        prefetcher.close();
+
+        // Invalid log: constructor fails and doesn't keep the file open
+        File badFile = File.createTempFile("jmavsim-replay-bad", ".px4log");
+        badFile.deleteOnExit();
+        new File(badFile.getPath() + IndexedLogReader.INDEX_SUFFIX).deleteOnExit();
+        FileOutputStream badOut = new FileOutputStream(badFile);
+        badOut.write(new byte[1024]);
+        badOut.close();
+        File fdDir = new File("/proc/self/fd");
+        int fdNum = fdDir.isDirectory() ? fdDir.list().length : 0;
+        boolean rejected = true;
+        for (int i = 0; i < 100; i++) {
+            try {
+                new IndexedLogReader(badFile.getPath());
+                rejected = false;
+            } catch (FormatErrorException ignored) {
+                // Expected
+            }
+        }
+        check(rejected, "log without TIME messages rejected");
+        if (fdDir.isDirectory()) {
+            check(fdDir.list().length <= fdNum, "invalid log file closed");
+        }
+
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures);
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * Record flight to log file.
+     *
+     * @return recorded vehicle altitude (LPOS.Z) for each update
+     */
+    private static float[] record(File logFile) throws Exception {
+        World world = new World();
+        SimpleEnvironment environment = new SimpleEnvironment(world);
+        environment.setWindDeviation(0.0);
+        world.addObject(environment);
+        AbstractMulticopter vehicle = new Quadcopter(world, "models/3dr_arducopter_quad_x.obj", "x", 0.33 / 2, 4.0,
+                0.05, 0.005, new Vector3d());
+        vehicle.setMass(0.8);
+        Matrix3d I = new Matrix3d();
+        I.m00 = 0.005;
+        I.m11 = 0.005;
+        I.m22 = 0.009;
+        vehicle.setMomentOfInertia(I);
+        vehicle.setControl(Arrays.asList(0.7, 0.7, 0.7, 0.7));
+        world.addObject(vehicle);
+        FlightRecorder recorder = new FlightRecorder(world, vehicle, null, logFile.getPath());
+        world.addObject(recorder);
+        float[] z = new float[UPDATES];
+        for (int i = 0; i < UPDATES; i++) {
+            world.update(TIME_START + i * TICK);
+            z[i] = (float) vehicle.getPosition().z;
+        }
+        recorder.close();
+        check(recorder.getDroppedNum() == 0 && recorder.getError() == null, "flight recorded");
+        return z;
+    }
+
+    /**
+     * Open log with marked index sidecar.
+     *
+     * @return true if the sidecar was reused, false if it was rebuilt
+     */
+    private static boolean isIndexReused(File logFile, File indexFile) throws Exception {
+        indexFile.setLastModified(INDEX_MTIME);
+        new IndexedLogReader(logFile.getPath()).close();
+        return indexFile.lastModified() == INDEX_MTIME;
+    }
+
+    private static void check(boolean ok, String description) {
+        System.out.println((ok ? "ok: " : "FAILED: ") + description);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
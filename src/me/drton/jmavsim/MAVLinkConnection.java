@@ -2,42 +2,126 @@ package me.drton.jmavsim;
 
 import me.drton.jmavlib.mavlink.MAVLinkMessage;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 /**
  * User: ton Date: 13.02.14 Time: 21:50
  */
-public class MAVLinkConnection extends WorldObject {
+public class MAVLinkConnection extends WorldObject implements Snapshottable {
+    /**
+     * Number of message IDs in MAVLink 1.0
+     */
+    public static final int MESSAGE_TYPES_NUM = 256;
+    private static final MAVLinkNode[] NO_NODES = new MAVLinkNode[0];
+
     private List<MAVLinkNode> nodes = new ArrayList<MAVLinkNode>();
-    private Set<Integer> skipMessages = new HashSet<Integer>();
+    private boolean[] skipMessages = new boolean[MESSAGE_TYPES_NUM];
+    private MAVLinkNode[][] routes = new MAVLinkNode[MESSAGE_TYPES_NUM][];
+    private boolean routesValid = false;
 
     public MAVLinkConnection(World world) {
         super(world);
     }
 
-    public void addNode(MAVLinkNode node) {
+    public synchronized void addNode(MAVLinkNode node) {
         nodes.add(node);
         node.addConnection(this);
+        routesValid = false;
     }
 
-    public void addSkipMessage(int msgType) {
-        skipMessages.add(msgType);
+    public synchronized void addSkipMessage(int msgType) {
+        skipMessages[msgType] = true;
+        routesValid = false;
     }
 
-    public void sendMessage(MAVLinkNode sender, MAVLinkMessage msg) {
-        if (skipMessages.contains(msg.getMsgType())) {
-            return;
+    /**
+     * Called by node when its message filter changed.
+     */
+    synchronized void invalidateRoutes() {
+        routesValid = false;
+    }
+
+    /**
+     * Build routing table: list of nodes accepting each message type.
+     */
+    private void updateRoutes() {
+        List<MAVLinkNode> route = new ArrayList<MAVLinkNode>();
+        for (int msgType = 0; msgType < MESSAGE_TYPES_NUM; msgType++) {
+            route.clear();
+            if (!skipMessages[msgType]) {
+                for (MAVLinkNode node : nodes) {
+                    if (node.acceptsMessage(msgType)) {
+                        route.add(node);
+                    }
+                }
+            }
+            routes[msgType] = route.isEmpty() ? NO_NODES : route.toArray(new MAVLinkNode[route.size()]);
         }
-        for (MAVLinkNode node : nodes) {
-            if (node != sender) {
+        routesValid = true;
+    }
+
+    private MAVLinkNode[] getRoute(int msgType) {
+        if (!routesValid) {
+            updateRoutes();
+        }
+        return msgType >= 0 && msgType < MESSAGE_TYPES_NUM ? routes[msgType] : NO_NODES;
+    }
+
+    /**
+     * Deliver message to all nodes accepting it except sender. Synchronized because connection may be shared between
+     * object groups updated in parallel.
+     */
+    public synchronized void sendMessage(MAVLinkNode sender, MAVLinkMessage msg) {
+        MAVLinkNode[] route = getRoute(msg.getMsgType());
+        for (MAVLinkNode node : route) {
+            if (node != sender && node.acceptsSource(msg.systemID, msg.componentID)) {
                 node.handleMessage(msg);
             }
         }
     }
 
+    /**
+     * Deliver encoded message frame to all nodes accepting it except sender.
+     */
+    public synchronized void sendFrame(MAVLinkNode sender, int msgType, ByteBuffer frame) {
+        MAVLinkNode[] route = getRoute(msgType);
+        if (route.length == 0) {
+            return;
+        }
+        int sysId = MAVLinkFrame.getSystemId(frame);
+        int componentId = MAVLinkFrame.getComponentId(frame);
+        for (MAVLinkNode node : route) {
+            if (node != sender && node.acceptsSource(sysId, componentId)) {
+                node.handleFrame(msgType, frame);
+            }
+        }
+    }
+
+    /**
+     * Save state of the nodes that support snapshots, e.g. HIL system. Ports have no simulation state.
+     */
+    @Override
+    public void saveState(SimulationSnapshot snapshot) {
+        for (int i = 0; i < nodes.size(); i++) {
+            MAVLinkNode node = nodes.get(i);
+            if (node instanceof Snapshottable) {
+                ((Snapshottable) node).saveState(snapshot);
+            }
+        }
+    }
+
+    @Override
+    public void restoreState(SimulationSnapshot snapshot) {
+        for (int i = 0; i < nodes.size(); i++) {
+            MAVLinkNode node = nodes.get(i);
+            if (node instanceof Snapshottable) {
+                ((Snapshottable) node).restoreState(snapshot);
+            }
+        }
+    }
+
     @Override
     public void update(long t) {
         for (MAVLinkNode node : nodes) {
@@ -1,7 +1,10 @@
 package me.drton.jmavsim;
 
-import me.drton.jmavlib.mavlink.MAVLinkMessage;
 import me.drton.jmavlib.mavlink.MAVLinkSchema;
+import me.drton.jmavsim.mavlink.MissionAck;
+import me.drton.jmavsim.mavlink.MissionCount;
+import me.drton.jmavsim.mavlink.MissionItem;
+import me.drton.jmavsim.mavlink.MissionRequest;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -20,52 +23,51 @@ public class MAVLinkControl extends MAVLinkSystem {
     private int targetComponentId;
     private boolean sending = false;
     private long timeout = 4000;
+    private final MissionItem missionItem = new MissionItem();
+    private final MissionCount missionCount = new MissionCount();
 
     public MAVLinkControl(MAVLinkSchema schema, int sysId, int componentId, int targetSysId, int targetComponentId) {
         super(schema, sysId, componentId);
         this.targetSysId = targetSysId;
         this.targetComponentId = targetComponentId;
+        setMessageFilter(MissionRequest.ID, MissionAck.ID);
     }
 
     @Override
-    public void handleMessage(MAVLinkMessage msg) {
-        super.handleMessage(msg);
-        if ("MISSION_REQUEST".equals(msg.getMsgName())) {
-            int target_system = msg.getInt("target_system");
-            int target_component = msg.getInt("target_component");
-            if (target_system == sysId && (target_component == componentId || target_component == 0)) {
-                int itemID = msg.getInt("seq");
+    protected boolean handlePayload(MAVLinkPayload payload) {
+        if (payload.getMsgType() == MissionRequest.ID) {
+            MissionRequest msg = (MissionRequest) payload;
+            if (msg.target_system == sysId && (msg.target_component == componentId || msg.target_component == 0)) {
+                int itemID = msg.seq;
                 if (itemID >= 0 && itemID < mission.size()) {
                     MAVLinkMissionItem item = mission.get(itemID);
                     System.out.println("Mission send: item " + itemID + " " + item);
-                    MAVLinkMessage mission_item = new MAVLinkMessage(schema, "MISSION_ITEM", sysId, componentId);
-                    mission_item.set("target_system", targetSysId);
-                    mission_item.set("target_component", targetComponentId);
-                    mission_item.set("seq", itemID);
-                    mission_item.set("current", (itemID == 0) ? 1 : 0); // TODO
-                    mission_item.set("command", item.command);
-                    mission_item.set("frame", item.frame);
-                    mission_item.set("autocontinue", item.autocontinue);
-                    mission_item.set("param1", item.param1);
-                    mission_item.set("param2", item.param2);
-                    mission_item.set("param3", item.param3);
-                    mission_item.set("param4", item.param4);
-                    mission_item.set("x", item.x);
-                    mission_item.set("y", item.y);
-                    mission_item.set("z", item.z);
-                    mission_item.set("autocontinue", item.autocontinue);
-                    sendMessage(mission_item);
+                    missionItem.target_system = targetSysId;
+                    missionItem.target_component = targetComponentId;
+                    missionItem.seq = itemID;
+                    missionItem.current = (itemID == 0) ? 1 : 0; // TODO
+                    missionItem.command = item.command;
+                    missionItem.frame = item.frame;
+                    missionItem.param1 = item.param1;
+                    missionItem.param2 = item.param2;
+                    missionItem.param3 = item.param3;
+                    missionItem.param4 = item.param4;
+                    missionItem.x = item.x;
+                    missionItem.y = item.y;
+                    missionItem.z = item.z;
+                    missionItem.autocontinue = item.autocontinue;
+                    sendMessage(missionItem);
                 }
             }
-        } else if ("MISSION_ACK".equals(msg.getMsgName())) {
-            int target_system = msg.getInt("target_system");
-            int target_component = msg.getInt("target_component");
-            if (target_system == sysId && (target_component == componentId || target_component == 0)) {
+        } else if (payload.getMsgType() == MissionAck.ID) {
+            MissionAck msg = (MissionAck) payload;
+            if (msg.target_system == sysId && (msg.target_component == componentId || msg.target_component == 0)) {
                 System.out.println("Mission sent");
                 missionSendTime = 0;
                 sending = false;
             }
         }
+        return false;
     }
 
     @Override
@@ -79,11 +81,10 @@ public class MAVLinkControl extends MAVLinkSystem {
         } else if (missionSendTime != 0 && t > missionSendTime) {
             sending = true;
             System.out.printf("Mission sending started, %s items\n", mission.size());
-            MAVLinkMessage mission_count = new MAVLinkMessage(schema, "MISSION_COUNT", sysId, componentId);
-            mission_count.set("target_system", targetSysId);
-            mission_count.set("target_component", targetComponentId);
-            mission_count.set("count", mission.size());
-            sendMessage(mission_count);
+            missionCount.target_system = targetSysId;
+            missionCount.target_component = targetComponentId;
+            missionCount.count = mission.size();
+            sendMessage(missionCount);
             lastActionTime = t;
         }
     }
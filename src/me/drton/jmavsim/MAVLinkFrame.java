@@ -0,0 +1,75 @@
+package me.drton.jmavsim;
+
+import java.nio.ByteBuffer;
+
+/**
+ * MAVLink 1.0 frame layout and checksum.
+ * Frame: start byte, payload length, sequence, system ID, component ID, message ID, payload, CRC (little-endian).
+ */
+public final class MAVLinkFrame {
+    public static final byte START_OF_FRAME = (byte) 0xFE;
+    public static final int HEADER_LENGTH = 6;
+    public static final int NON_PAYLOAD_LENGTH = HEADER_LENGTH + 2;
+    public static final int MAX_LENGTH = 255 + NON_PAYLOAD_LENGTH;
+
+    private MAVLinkFrame() {
+    }
+
+    public static int getPayloadLength(ByteBuffer frame) {
+        return frame.get(frame.position() + 1) & 0xFF;
+    }
+
+    public static int getSequence(ByteBuffer frame) {
+        return frame.get(frame.position() + 2) & 0xFF;
+    }
+
+    public static int getSystemId(ByteBuffer frame) {
+        return frame.get(frame.position() + 3) & 0xFF;
+    }
+
+    public static int getComponentId(ByteBuffer frame) {
+        return frame.get(frame.position() + 4) & 0xFF;
+    }
+
+    public static int getMsgType(ByteBuffer frame) {
+        return frame.get(frame.position() + 5) & 0xFF;
+    }
+
+    /**
+     * Calculate checksum of the frame.
+     *
+     * @param buffer   buffer with the frame
+     * @param start    absolute position of the frame
+     * @param crcExtra CRC extra of the message
+     */
+    public static int calculateCRC(ByteBuffer buffer, int start, int crcExtra) {
+        int end = start + HEADER_LENGTH + (buffer.get(start + 1) & 0xFF);
+        int crc = 0xFFFF;
+        for (int i = start + 1; i < end; i++) {
+            crc = accumulateCRC(crc, buffer.get(i));
+        }
+        return accumulateCRC(crc, crcExtra);
+    }
+
+    /**
+     * Check checksum of the frame.
+     *
+     * @param buffer   buffer with the frame
+     * @param start    absolute position of the frame
+     * @param crcExtra CRC extra of the message
+     */
+    public static boolean checkCRC(ByteBuffer buffer, int start, int crcExtra) {
+        int end = start + HEADER_LENGTH + (buffer.get(start + 1) & 0xFF);
+        int crc = (buffer.get(end) & 0xFF) | ((buffer.get(end + 1) & 0xFF) << 8);
+        return crc == calculateCRC(buffer, start, crcExtra);
+    }
+
+    /**
+     * X.25 CRC as used by MAVLink.
+     */
+    static int accumulateCRC(int crc, int b) {
+        int tmp = (b & 0xFF) ^ (crc & 0xFF);
+        tmp = (tmp ^ (tmp << 4)) & 0xFF;
+        return ((crc >> 8) ^ (tmp << 8) ^ (tmp << 3) ^ (tmp >> 4)) & 0xFFFF;
+    }
+}
@@ -0,0 +1,83 @@
+package me.drton.jmavsim;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single producer single consumer queue of MAVLink frames.
+ * Frames are copied into preallocated slots, so queue doesn't allocate memory. Only one thread at a time may offer
+ * frames and only one thread at a time may take them.
+ */
+public class MAVLinkFrameQueue {
+    private final ByteBuffer[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(0);     // Next slot to read, written by consumer
+    private final AtomicLong tail = new AtomicLong(0);     // Next slot to write, written by producer
+    private volatile long droppedFrames = 0;                // Written by producer
+
+    /**
+     * @param capacity number of frames, rounded up to power of two
+     */
+    public MAVLinkFrameQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        slots = new ByteBuffer[size];
+        mask = size - 1;
+        ByteBuffer storage = ByteBuffer.allocateDirect(size * MAVLinkFrame.MAX_LENGTH);
+        for (int i = 0; i < size; i++) {
+            storage.limit((i + 1) * MAVLinkFrame.MAX_LENGTH);
+            storage.position(i * MAVLinkFrame.MAX_LENGTH);
+            slots[i] = storage.slice();
+            slots[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Copy frame to the queue, position of the frame is not changed. Producer side.
+     *
+     * @return false if queue is full and frame was dropped
+     */
+    public boolean offer(ByteBuffer frame) {
+        long t = tail.get();
+        if (t - head.get() >= slots.length) {
+            droppedFrames++;
+            return false;
+        }
+        ByteBuffer slot = slots[(int) t & mask];
+        slot.clear();
+        int position = frame.position();
+        slot.put(frame);
+        frame.position(position);
+        slot.flip();
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Get next frame without removing it from the queue. Consumer side.
+     *
+     * @return frame, valid until release(), or null if queue is empty
+     */
+    public ByteBuffer peek() {
+        long h = head.get();
+        if (h >= tail.get()) {
+            return null;
+        }
+        return slots[(int) h & mask];
+    }
+
+    /**
+     * Remove frame returned by peek() from the queue. Consumer side.
+     */
+    public void release() {
+        head.lazySet(head.get() + 1);
+    }
+
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+}
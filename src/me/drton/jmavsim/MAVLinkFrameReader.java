@@ -0,0 +1,82 @@
+package me.drton.jmavsim;
+
+import me.drton.jmavsim.mavlink.MAVLinkMessages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads MAVLink 1.0 frames from the channel without decoding them.
+ * Frames of unknown messages and frames with wrong length or checksum are skipped. Frame buffer is reused, its content
+ * is valid until next read() call.
+ */
+public class MAVLinkFrameReader {
+    private final ReadableByteChannel channel;
+    private final ByteBuffer rxBuffer = ByteBuffer.allocateDirect(8192);
+    private final ByteBuffer frame = ByteBuffer.allocateDirect(MAVLinkFrame.MAX_LENGTH);
+    private long droppedBytes = 0;
+
+    public MAVLinkFrameReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        frame.order(ByteOrder.LITTLE_ENDIAN);
+        rxBuffer.flip();
+    }
+
+    /**
+     * Read next frame.
+     *
+     * @return frame buffer, position is at start of the frame, or null if no complete frame available
+     * @throws IOException
+     */
+    public ByteBuffer read() throws IOException {
+        while (true) {
+            if (parseFrame()) {
+                return frame;
+            }
+            rxBuffer.compact();
+            int n = channel.read(rxBuffer);
+            rxBuffer.flip();
+            if (n <= 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return number of bytes skipped because of wrong or unknown frames
+     */
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    private boolean parseFrame() {
+        while (rxBuffer.remaining() >= MAVLinkFrame.NON_PAYLOAD_LENGTH) {
+            int start = rxBuffer.position();
+            if (rxBuffer.get(start) == MAVLinkFrame.START_OF_FRAME) {
+                int payloadLength = rxBuffer.get(start + 1) & 0xFF;
+                int frameLength = payloadLength + MAVLinkFrame.NON_PAYLOAD_LENGTH;
+                if (rxBuffer.remaining() < frameLength) {
+                    return false;
+                }
+                int msgType = rxBuffer.get(start + 5) & 0xFF;
+                int crcExtra = MAVLinkMessages.getCRCExtra(msgType);
+                if (crcExtra >= 0 && payloadLength == MAVLinkMessages.getPayloadLength(msgType) &&
+                        MAVLinkFrame.checkCRC(rxBuffer, start, crcExtra)) {
+                    int limit = rxBuffer.limit();
+                    rxBuffer.limit(start + frameLength);
+                    frame.clear();
+                    frame.put(rxBuffer);
+                    frame.flip();
+                    rxBuffer.limit(limit);
+                    return true;
+                }
+            }
+            // Not a valid frame start, skip one byte
+            rxBuffer.position(start + 1);
+            droppedBytes++;
+        }
+        return false;
+    }
+}
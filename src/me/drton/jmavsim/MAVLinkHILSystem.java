@@ -2,28 +2,47 @@ package me.drton.jmavsim;
 
 import me.drton.jmavlib.mavlink.MAVLinkMessage;
 import me.drton.jmavlib.mavlink.MAVLinkSchema;
+import me.drton.jmavsim.mavlink.Heartbeat;
+import me.drton.jmavsim.mavlink.HilControls;
+import me.drton.jmavsim.mavlink.HilGps;
+import me.drton.jmavsim.mavlink.HilSensor;
+import me.drton.jmavsim.mavlink.SetMode;
+import me.drton.jmavsim.mavlink.Statustext;
 import me.drton.jmavsim.vehicle.AbstractVehicle;
 
 import javax.vecmath.Vector3d;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
+import java.nio.ByteBuffer;
 
 /**
  * MAVLinkHILSystem is MAVLink bridge between AbstractVehicle and autopilot connected via MAVLink.
  * MAVLinkHILSystem should have the same sysID as the autopilot, but different componentId.
  */
-public class MAVLinkHILSystem extends MAVLinkSystem {
+public class MAVLinkHILSystem extends MAVLinkSystem implements Snapshottable {
+    // HIL_SENSOR fields_updated bits
+    private static final long FIELDS_ACC = 0x7;
+    private static final long FIELDS_GYRO = 0x38;
+    private static final long FIELDS_MAG = 0x1C0;
+    private static final long FIELDS_PRESSURE_ALT = 0x800;
+
     private AbstractVehicle vehicle;
     private boolean gotHeartBeat = false;
     private boolean inited = false;
     private long initTime = 0;
     private long initDelay = 1000;
+    private long time = 0;
+    private final HilSensor hilSensor = new HilSensor();
+    private final HilGps hilGps = new HilGps();
+    private final HilControls hilControls = new HilControls();
+    private final double[] control = new double[8];
+    private final Heartbeat heartbeat = new Heartbeat();
+    private final Statustext statustext = new Statustext();
+    private final SensorScheduler sensorScheduler = new SensorScheduler();
 
     /**
      * Create MAVLinkHILSimulator, MAVLink system that sends simulated sensors to autopilot and passes controls from
      * autopilot to simulator
      *
+     * @param schema      schema, may be null, generated message classes are used for all messages
      * @param sysId       SysId of simulator should be the same as autopilot
      * @param componentId ComponentId of simulator should be different from autopilot
      * @param vehicle     vehicle to connect
@@ -31,92 +50,187 @@ public class MAVLinkHILSystem extends MAVLinkSystem {
     public MAVLinkHILSystem(MAVLinkSchema schema, int sysId, int componentId, AbstractVehicle vehicle) {
         super(schema, sysId, componentId);
         this.vehicle = vehicle;
+        setMessageFilter(HilControls.ID, Heartbeat.ID, Statustext.ID);
+    }
+
+    /**
+     * @return scheduler that defines rates of sensors sent to autopilot
+     */
+    public SensorScheduler getSensorScheduler() {
+        return sensorScheduler;
+    }
+
+    /**
+     * @return last sent HIL_SENSOR message, its time_usec is time when it was sent
+     */
+    public HilSensor getHilSensor() {
+        return hilSensor;
+    }
+
+    /**
+     * @return last sent HIL_GPS message, its time_usec is time when it was sent
+     */
+    public HilGps getHilGps() {
+        return hilGps;
     }
 
     @Override
     public void handleMessage(MAVLinkMessage msg) {
-        super.handleMessage(msg);
-        long t = System.currentTimeMillis();
-        if ("HIL_CONTROLS".equals(msg.getMsgName())) {
-            List<Double> control = Arrays.asList(msg.getDouble("roll_ailerons"), msg.getDouble("pitch_elevator"),
-                    msg.getDouble("yaw_rudder"), msg.getDouble("throttle"), msg.getDouble("aux1"),
-                    msg.getDouble("aux2"), msg.getDouble("aux3"), msg.getDouble("aux4"));
-            vehicle.setControl(control);
-        } else if ("HEARTBEAT".equals(msg.getMsgName())) {
-            if (!gotHeartBeat && sysId == msg.systemID) {
-                gotHeartBeat = true;
-                initTime = t + initDelay;
-            } else if (!gotHeartBeat && sysId != msg.systemID) {
-                System.out.println("WARNING: Got heartbeat from system #" + Integer.toString(msg.systemID) +
-                    " but configured to only accept messages from system #" + Integer.toString(sysId) +
-                    ". Please change the system ID parameter to match in order to use HITL/SITL.");
-            }
-            if (!inited && t > initTime) {
-                System.out.println("Init MAVLink");
-                initMavLink();
-                inited = true;
-            }
-            if ((msg.getInt("base_mode") & 128) == 0) {
-                vehicle.setControl(Collections.<Double>emptyList());
-            }
-        } else if ("STATUSTEXT".equals(msg.getMsgName())) {
-            System.out.println("MSG: " + msg.getString("text"));
+        handleFrame(msg.getMsgType(), msg.encode());
+    }
+
+    @Override
+    public void handleFrame(int msgType, ByteBuffer frame) {
+        long t = time;
+        switch (msgType) {
+            case HilControls.ID:
+                hilControls.decodeFrame(frame);
+                control[0] = hilControls.roll_ailerons;
+                control[1] = hilControls.pitch_elevator;
+                control[2] = hilControls.yaw_rudder;
+                control[3] = hilControls.throttle;
+                control[4] = hilControls.aux1;
+                control[5] = hilControls.aux2;
+                control[6] = hilControls.aux3;
+                control[7] = hilControls.aux4;
+                vehicle.setControl(control, control.length);
+                SimulationClock clock = vehicle.getWorld().getClock();
+                if (clock instanceof LockstepClock) {
+                    ((LockstepClock) clock).controlsReceived(MAVLinkFrame.getSystemId(frame),
+                            hilControls.time_usec);
+                }
+                break;
+            case Heartbeat.ID:
+                heartbeat.decodeFrame(frame);
+                int msgSysId = MAVLinkFrame.getSystemId(frame);
+                if (!gotHeartBeat && sysId == msgSysId) {
+                    gotHeartBeat = true;
+                    initTime = t + initDelay;
+                } else if (!gotHeartBeat && sysId != msgSysId) {
+                    System.out.println("WARNING: Got heartbeat from system #" + Integer.toString(msgSysId) +
+                        " but configured to only accept messages from system #" + Integer.toString(sysId) +
+                        ". Please change the system ID parameter to match in order to use HITL/SITL.");
+                }
+                if (!inited && t > initTime) {
+                    System.out.println("Init MAVLink");
+                    initMavLink();
+                    inited = true;
+                }
+                if ((heartbeat.base_mode & 128) == 0) {
+                    vehicle.setControl(control, 0);
+                }
+                break;
+            case Statustext.ID:
+                statustext.decodeFrame(frame);
+                System.out.println("MSG: " + MAVLinkPayload.getString(statustext.text));
+                break;
+            default:
+                break;
         }
     }
 
     @Override
     public void update(long t) {
         super.update(t);
+        time = t;
         long tu = t * 1000; // Time in us
 
         Sensors sensors = vehicle.getSensors();
+        sensorScheduler.update(t);
 
-        // Sensors
-        MAVLinkMessage msg_sensor = new MAVLinkMessage(schema, "HIL_SENSOR", sysId, componentId);
-        msg_sensor.set("time_usec", tu);
-        Vector3d acc = sensors.getAcc();
-        msg_sensor.set("xacc", acc.x);
-        msg_sensor.set("yacc", acc.y);
-        msg_sensor.set("zacc", acc.z);
-        Vector3d gyro = sensors.getGyro();
-        msg_sensor.set("xgyro", gyro.x);
-        msg_sensor.set("ygyro", gyro.y);
-        msg_sensor.set("zgyro", gyro.z);
-        Vector3d mag = sensors.getMag();
-        msg_sensor.set("xmag", mag.x);
-        msg_sensor.set("ymag", mag.y);
-        msg_sensor.set("zmag", mag.z);
-        msg_sensor.set("pressure_alt", sensors.getPressureAlt());
-        sendMessage(msg_sensor);
+        // Sensors, only due ones are computed, others keep previous values
+        long fieldsUpdated = 0;
+        if (sensorScheduler.isDue(SensorScheduler.IMU)) {
+            Vector3d acc = sensors.getAcc();
+            Vector3d gyro = sensors.getGyro();
+            hilSensor.xacc = (float) acc.x;
+            hilSensor.yacc = (float) acc.y;
+            hilSensor.zacc = (float) acc.z;
+            hilSensor.xgyro = (float) gyro.x;
+            hilSensor.ygyro = (float) gyro.y;
+            hilSensor.zgyro = (float) gyro.z;
+            fieldsUpdated |= FIELDS_ACC | FIELDS_GYRO;
+        }
+        if (sensorScheduler.isDue(SensorScheduler.MAG)) {
+            Vector3d mag = sensors.getMag();
+            hilSensor.xmag = (float) mag.x;
+            hilSensor.ymag = (float) mag.y;
+            hilSensor.zmag = (float) mag.z;
+            fieldsUpdated |= FIELDS_MAG;
+        }
+        if (sensorScheduler.isDue(SensorScheduler.BARO)) {
+            hilSensor.pressure_alt = (float) sensors.getPressureAlt();
+            fieldsUpdated |= FIELDS_PRESSURE_ALT;
+        }
+        if (fieldsUpdated != 0) {
+            hilSensor.time_usec = tu;
+            hilSensor.fields_updated = fieldsUpdated;
+            sendMessage(hilSensor);
+        }
 
         // GPS
-        if (sensors.isGPSUpdated()) {
+        if (sensorScheduler.isDue(SensorScheduler.GPS)) {
             GNSSReport gps = sensors.getGNSS();
-            if (gps != null && gps.position != null && gps.velocity != null) {
-                MAVLinkMessage msg_gps = new MAVLinkMessage(schema, "HIL_GPS", sysId, componentId);
-                msg_gps.set("time_usec", tu);
-                msg_gps.set("lat", (long) (gps.position.lat * 1e7));
-                msg_gps.set("lon", (long) (gps.position.lon * 1e7));
-                msg_gps.set("alt", (long) (gps.position.alt * 1e3));
-                msg_gps.set("vn", (int) (gps.velocity.x * 100));
-                msg_gps.set("ve", (int) (gps.velocity.y * 100));
-                msg_gps.set("vd", (int) (gps.velocity.z * 100));
-                msg_gps.set("eph", (int) (gps.eph * 100));
-                msg_gps.set("epv", (int) (gps.epv * 100));
-                msg_gps.set("vel", (int) (gps.getSpeed() * 100));
-                msg_gps.set("cog", (int) (gps.getCog() / Math.PI * 18000.0));
-                msg_gps.set("fix_type", gps.fix);
-                msg_gps.set("satellites_visible", 10);
-                sendMessage(msg_gps);
+            if (gps != null) {
+                hilGps.time_usec = tu;
+                hilGps.lat = (int) (gps.lat * 1e7);
+                hilGps.lon = (int) (gps.lon * 1e7);
+                hilGps.alt = (int) (gps.alt * 1e3);
+                hilGps.vn = (int) (gps.velocity.x * 100);
+                hilGps.ve = (int) (gps.velocity.y * 100);
+                hilGps.vd = (int) (gps.velocity.z * 100);
+                hilGps.eph = (int) (gps.eph * 100);
+                hilGps.epv = (int) (gps.epv * 100);
+                hilGps.vel = (int) (gps.getSpeed() * 100);
+                hilGps.cog = (int) (gps.getCog() / Math.PI * 18000.0);
+                hilGps.fix_type = gps.fix;
+                hilGps.satellites_visible = 10;
+                sendMessage(hilGps);
             }
         }
     }
 
+    /**
+     * Save sensors schedule and last sent sensor values, values of not due sensors are sent again on next update.
+     * Handshake with autopilot is not saved, autopilot itself can't be rewound.
+     */
+    @Override
+    public void saveState(SimulationSnapshot snapshot) {
+        snapshot.putLong(time);
+        sensorScheduler.saveState(snapshot);
+        snapshot.putDouble(hilSensor.xacc);
+        snapshot.putDouble(hilSensor.yacc);
+        snapshot.putDouble(hilSensor.zacc);
+        snapshot.putDouble(hilSensor.xgyro);
+        snapshot.putDouble(hilSensor.ygyro);
+        snapshot.putDouble(hilSensor.zgyro);
+        snapshot.putDouble(hilSensor.xmag);
+        snapshot.putDouble(hilSensor.ymag);
+        snapshot.putDouble(hilSensor.zmag);
+        snapshot.putDouble(hilSensor.pressure_alt);
+    }
+
+    @Override
+    public void restoreState(SimulationSnapshot snapshot) {
+        time = snapshot.getLong();
+        sensorScheduler.restoreState(snapshot);
+        hilSensor.xacc = (float) snapshot.getDouble();
+        hilSensor.yacc = (float) snapshot.getDouble();
+        hilSensor.zacc = (float) snapshot.getDouble();
+        hilSensor.xgyro = (float) snapshot.getDouble();
+        hilSensor.ygyro = (float) snapshot.getDouble();
+        hilSensor.zgyro = (float) snapshot.getDouble();
+        hilSensor.xmag = (float) snapshot.getDouble();
+        hilSensor.ymag = (float) snapshot.getDouble();
+        hilSensor.zmag = (float) snapshot.getDouble();
+        hilSensor.pressure_alt = (float) snapshot.getDouble();
+    }
+
     private void initMavLink() {
         // Set HIL mode
-        MAVLinkMessage msg = new MAVLinkMessage(schema, "SET_MODE", sysId, componentId);
-        msg.set("target_system", sysId);
-        msg.set("base_mode", 32);     // HIL, disarmed
+        SetMode msg = new SetMode();
+        msg.target_system = sysId;
+        msg.base_mode = 32;     // HIL, disarmed
         sendMessage(msg);
     }
 }
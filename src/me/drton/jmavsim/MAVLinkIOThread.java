@@ -0,0 +1,210 @@
+package me.drton.jmavsim;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * I/O thread for MAVLink ports. All selectable channels are multiplexed on one Selector, so network reads, parsing
+ * and writes are done outside of World.update(). Ports exchange frames with the simulation via MAVLinkFrameQueue.
+ * Thread sleeps in select() until channel is readable or port requested write, there is no busy polling.
+ */
+public class MAVLinkIOThread implements Runnable {
+    /**
+     * Port side of the I/O thread, methods are called in I/O thread.
+     */
+    public interface Handler {
+        /**
+         * Read available data from the channel.
+         *
+         * @return true if new frames were received
+         */
+        boolean handleRead() throws IOException;
+
+        /**
+         * Write queued frames.
+         */
+        void handleWrite() throws IOException;
+    }
+
+    private static class Registration {
+        final SelectableChannel channel;
+        final Handler handler;
+        volatile SelectionKey key = null;
+        volatile boolean cancelled = false;
+
+        Registration(SelectableChannel channel, Handler handler) {
+            this.channel = channel;
+            this.handler = handler;
+        }
+
+        void cancel() {
+            cancelled = true;
+            SelectionKey k = key;
+            if (k != null) {
+                k.cancel();
+            }
+        }
+    }
+
+    private final Selector selector;
+    private final List<Registration> active = new CopyOnWriteArrayList<Registration>();
+    private final Queue<Registration> registrations = new ConcurrentLinkedQueue<Registration>();
+    private final AtomicBoolean writeRequested = new AtomicBoolean(false);
+    private final Object inputLock = new Object();
+    private long inputCount = 0;
+    private volatile boolean running = false;
+    private Thread thread = null;
+
+    public MAVLinkIOThread() throws IOException {
+        selector = Selector.open();
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, "MAVLink I/O");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() throws InterruptedException, IOException {
+        running = false;
+        selector.wakeup();
+        if (thread != null) {
+            thread.join();
+            thread = null;
+        }
+        selector.close();
+    }
+
+    /**
+     * Register port. Channel must be in non-blocking mode, if channel is null only writes will be handled, port should
+     * call signalInput() when it received frames.
+     */
+    public void register(SelectableChannel channel, Handler handler) {
+        Registration registration = new Registration(channel, handler);
+        active.add(registration);
+        if (channel != null) {
+            // Channel is registered in I/O thread, Selector.register() blocks while select() is in progress
+            registrations.add(registration);
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Unregister port. Channel's key is cancelled, so the channel is not selected anymore.
+     */
+    public void unregister(Handler handler) {
+        for (Registration registration : active) {
+            if (registration.handler == handler) {
+                active.remove(registration);
+                registration.cancel();
+            }
+        }
+    }
+
+    /**
+     * Wake up I/O thread to write queued frames. Requests are coalesced, so frames queued in one simulation step are
+     * written in one batch.
+     */
+    public void requestWrite() {
+        if (writeRequested.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Notify threads waiting in awaitInput() that new frames were received.
+     */
+    public void signalInput() {
+        synchronized (inputLock) {
+            inputCount++;
+            inputLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return counter of received frame batches, used with awaitInput()
+     */
+    public long getInputCount() {
+        synchronized (inputLock) {
+            return inputCount;
+        }
+    }
+
+    /**
+     * Wait until new frames received after getInputCount() returned given count.
+     *
+     * @param count   value returned by getInputCount()
+     * @param timeout max wait time, [ms]
+     */
+    public void awaitInput(long count, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (inputLock) {
+            long remaining = timeout;
+            while (inputCount == count && remaining > 0) {
+                inputLock.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Registration registration;
+                while ((registration = registrations.poll()) != null) {
+                    if (registration.cancelled) {
+                        continue;
+                    }
+                    try {
+                        registration.key = registration.channel.register(selector, SelectionKey.OP_READ,
+                                registration.handler);
+                    } catch (ClosedChannelException e) {
+                        continue;
+                    }
+                    if (registration.cancelled) {
+                        // Unregistered concurrently, before the key was set
+                        registration.key.cancel();
+                    }
+                }
+                selector.select();
+                writeRequested.set(false);
+                boolean input = false;
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Handler handler = (Handler) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        try {
+                            input |= handler.handleRead();
+                        } catch (IOException ignored) {
+                            // Silently ignore this exception, we likely just have nobody on this port yet/already
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+                if (input) {
+                    signalInput();
+                }
+                for (Registration r : active) {
+                    try {
+                        r.handler.handleWrite();
+                    } catch (IOException ignored) {
+                        // Silently ignore this exception, we likely just have nobody on this port yet/already
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package me.drton.jmavsim;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reusable frame encoder for messages of one MAVLink system.
+ * Payload is written by generated message class at fixed offsets directly into the frame buffer, so encoding
+ * doesn't allocate memory. Frame buffer is reused, its content is valid until next encode() call.
+ */
+public class MAVLinkMessageEncoder {
+    private final ByteBuffer frame;
+    private final int sysId;
+    private final int componentId;
+    private int sequence = 0;
+
+    public MAVLinkMessageEncoder(int sysId, int componentId) {
+        this.sysId = sysId;
+        this.componentId = componentId;
+        frame = ByteBuffer.allocateDirect(MAVLinkFrame.MAX_LENGTH);
+        frame.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Encode message to frame.
+     *
+     * @return frame buffer ready to be written, position is at start of the frame
+     */
+    public ByteBuffer encode(MAVLinkPayload payload) {
+        int payloadLength = payload.getPayloadLength();
+        frame.clear();
+        frame.put(0, MAVLinkFrame.START_OF_FRAME);
+        frame.put(1, (byte) payloadLength);
+        frame.put(2, (byte) sequence);
+        frame.put(3, (byte) sysId);
+        frame.put(4, (byte) componentId);
+        frame.put(5, (byte) payload.getMsgType());
+        payload.encode(frame, MAVLinkFrame.HEADER_LENGTH);
+        int crc = MAVLinkFrame.calculateCRC(frame, 0, payload.getCRCExtra());
+        int end = MAVLinkFrame.HEADER_LENGTH + payloadLength;
+        frame.put(end, (byte) crc);
+        frame.put(end + 1, (byte) (crc >> 8));
+        frame.limit(end + 2);
+        sequence = (sequence + 1) & 0xFF;
+        return frame;
+    }
+}
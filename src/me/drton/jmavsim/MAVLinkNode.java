@@ -1,9 +1,13 @@
 package me.drton.jmavsim;
 
 import me.drton.jmavlib.mavlink.MAVLinkMessage;
+import me.drton.jmavlib.mavlink.MAVLinkProtocolException;
 import me.drton.jmavlib.mavlink.MAVLinkSchema;
+import me.drton.jmavlib.mavlink.MAVLinkUnknownMessage;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -15,22 +19,126 @@ import java.util.List;
 public abstract class MAVLinkNode {
     protected MAVLinkSchema schema;
     private List<MAVLinkConnection> connections = new ArrayList<MAVLinkConnection>();
+    private final BitSet messageFilter = new BitSet(MAVLinkConnection.MESSAGE_TYPES_NUM);
+    private int sourceSysId = -1;
+    private int sourceComponentId = -1;
+    private final MAVLinkPayloadPool payloadPool = new MAVLinkPayloadPool();
 
+    /**
+     * @param schema schema used to decode and encode MAVLinkMessage, may be null if node uses generated message
+     *               classes only
+     */
     protected MAVLinkNode(MAVLinkSchema schema) {
         this.schema = schema;
+        messageFilter.set(0, MAVLinkConnection.MESSAGE_TYPES_NUM);
     }
 
     public void addConnection(MAVLinkConnection connection) {
         connections.add(connection);
     }
 
+    /**
+     * Receive only messages of given types. By default node receives all messages.
+     * Connections use it to build routing tables, so messages of other types are not delivered to the node at all.
+     *
+     * @param msgTypes message IDs
+     */
+    protected void setMessageFilter(int... msgTypes) {
+        messageFilter.clear();
+        for (int msgType : msgTypes) {
+            messageFilter.set(msgType);
+        }
+        for (MAVLinkConnection connection : connections) {
+            connection.invalidateRoutes();
+        }
+    }
+
+    /**
+     * Receive only messages from given system and component. By default node receives messages from all sources.
+     *
+     * @param sysId       system ID or -1 to accept any system
+     * @param componentId component ID or -1 to accept any component
+     */
+    protected void setSourceFilter(int sysId, int componentId) {
+        this.sourceSysId = sysId;
+        this.sourceComponentId = componentId;
+    }
+
+    public boolean acceptsMessage(int msgType) {
+        return messageFilter.get(msgType);
+    }
+
+    public boolean acceptsSource(int sysId, int componentId) {
+        return (sourceSysId < 0 || sourceSysId == sysId) && (sourceComponentId < 0 || sourceComponentId == componentId);
+    }
+
     protected void sendMessage(MAVLinkMessage msg) {
         for (MAVLinkConnection connection : connections) {
             connection.sendMessage(this, msg);
         }
     }
 
+    /**
+     * Send encoded message frame, e.g. produced by MAVLinkMessageEncoder.
+     *
+     * @param msgType message ID
+     * @param frame   frame buffer, position is at start of the frame
+     */
+    protected void sendFrame(int msgType, ByteBuffer frame) {
+        for (int i = 0; i < connections.size(); i++) {
+            connections.get(i).sendFrame(this, msgType, frame);
+        }
+    }
+
     public abstract void handleMessage(MAVLinkMessage msg);
 
+    /**
+     * Handle encoded message frame. Default implementation decodes it into pooled generated message instance and passes
+     * to handlePayload(), then, if the node has schema, decodes it using the schema and passes to handleMessage().
+     * Ports write the frame directly, systems may decode it with own generated message instances.
+     * Implementations must not change position of the frame buffer.
+     *
+     * @param msgType message ID
+     * @param frame   frame buffer, position is at start of the frame
+     */
+    public void handleFrame(int msgType, ByteBuffer frame) {
+        MAVLinkPayload payload = payloadPool.acquire(msgType);
+        if (payload != null) {
+            payload.decodeFrame(frame);
+            if (!handlePayload(payload)) {
+                payloadPool.release(payload);
+            }
+        }
+        if (schema == null) {
+            return;
+        }
+        try {
+            handleMessage(new MAVLinkMessage(schema, frame.duplicate()));
+        } catch (MAVLinkProtocolException e) {
+            e.printStackTrace();
+        } catch (MAVLinkUnknownMessage e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Handle received message decoded into pooled instance, doesn't allocate memory.
+     * Instance is returned to the pool after this method unless it returns true, then node owns the instance and must
+     * return it with releasePayload() when not used anymore.
+     *
+     * @param payload decoded message, source IDs are set
+     * @return true if node keeps the instance
+     */
+    protected boolean handlePayload(MAVLinkPayload payload) {
+        return false;
+    }
+
+    /**
+     * Return message instance kept by handlePayload() to the pool.
+     */
+    protected void releasePayload(MAVLinkPayload payload) {
+        payloadPool.release(payload);
+    }
+
     public abstract void update(long t);
 }
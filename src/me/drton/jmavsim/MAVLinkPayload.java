@@ -0,0 +1,79 @@
+package me.drton.jmavsim;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Base class of typed MAVLink messages generated from message definitions by MAVLinkGenerator.
+ * Generated classes have public primitive fields and read/write them at fixed offsets, so encoding and decoding
+ * doesn't allocate memory. Buffers must be little-endian.
+ */
+public abstract class MAVLinkPayload {
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    public int sysId;           // Source system of the last decoded frame
+    public int componentId;     // Source component of the last decoded frame
+
+    public abstract int getMsgType();
+
+    public abstract String getMsgName();
+
+    public abstract int getPayloadLength();
+
+    public abstract int getCRCExtra();
+
+    /**
+     * Read fields from payload.
+     *
+     * @param buffer little-endian buffer
+     * @param offset absolute position of payload in the buffer
+     */
+    public abstract void decode(ByteBuffer buffer, int offset);
+
+    /**
+     * Write fields to payload.
+     *
+     * @param buffer little-endian buffer
+     * @param offset absolute position of payload in the buffer
+     */
+    public abstract void encode(ByteBuffer buffer, int offset);
+
+    /**
+     * Read fields and source IDs from the frame.
+     *
+     * @param frame frame buffer, position is at start of the frame
+     */
+    public void decodeFrame(ByteBuffer frame) {
+        frame.order(ByteOrder.LITTLE_ENDIAN);
+        sysId = MAVLinkFrame.getSystemId(frame);
+        componentId = MAVLinkFrame.getComponentId(frame);
+        decode(frame, frame.position() + MAVLinkFrame.HEADER_LENGTH);
+    }
+
+    /**
+     * Convert char array field to string, allocates memory.
+     */
+    public static String getString(byte[] chars) {
+        int len = 0;
+        while (len < chars.length && chars[len] != 0) {
+            len++;
+        }
+        return new String(chars, 0, len, CHARSET);
+    }
+
+    /**
+     * Set char array field, string is truncated if it doesn't fit.
+     */
+    public static void setString(byte[] chars, String s) {
+        int len = Math.min(s.length(), chars.length);
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = i < len ? (byte) s.charAt(i) : 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getMsgName();
+    }
+}
@@ -0,0 +1,64 @@
+package me.drton.jmavsim;
+
+import me.drton.jmavsim.mavlink.MAVLinkMessages;
+
+/**
+ * Pool of generated message instances used to decode inbound frames without allocating memory.
+ * Instances are created on first use and reused after release(), pool grows if more instances of the same type are
+ * held at the same time.
+ */
+public class MAVLinkPayloadPool {
+    private static final int INITIAL_CAPACITY = 2;
+
+    private final MAVLinkPayload[][] free = new MAVLinkPayload[MAVLinkConnection.MESSAGE_TYPES_NUM][];
+    private final int[] freeNum = new int[MAVLinkConnection.MESSAGE_TYPES_NUM];
+    private long created = 0;
+
+    /**
+     * Take instance from the pool, it must be returned with release() when not used anymore.
+     *
+     * @param msgType message ID
+     * @return message instance with undefined field values, or null if message type is unknown
+     */
+    public synchronized MAVLinkPayload acquire(int msgType) {
+        int n = freeNum[msgType];
+        if (n > 0) {
+            MAVLinkPayload payload = free[msgType][n - 1];
+            free[msgType][n - 1] = null;
+            freeNum[msgType] = n - 1;
+            return payload;
+        }
+        MAVLinkPayload payload = MAVLinkMessages.create(msgType);
+        if (payload != null) {
+            created++;
+        }
+        return payload;
+    }
+
+    /**
+     * Return instance to the pool, it must not be used after this.
+     */
+    public synchronized void release(MAVLinkPayload payload) {
+        int msgType = payload.getMsgType();
+        MAVLinkPayload[] list = free[msgType];
+        int n = freeNum[msgType];
+        if (list == null) {
+            list = new MAVLinkPayload[INITIAL_CAPACITY];
+            free[msgType] = list;
+        } else if (n == list.length) {
+            MAVLinkPayload[] listNew = new MAVLinkPayload[n * 2];
+            System.arraycopy(list, 0, listNew, 0, n);
+            list = listNew;
+            free[msgType] = list;
+        }
+        list[n] = payload;
+        freeNum[msgType] = n + 1;
+    }
+
+    /**
+     * @return number of instances created by the pool, stops growing in steady state
+     */
+    public synchronized long getCreatedNum() {
+        return created;
+    }
+}
@@ -3,15 +3,73 @@ package me.drton.jmavsim;
 import me.drton.jmavlib.mavlink.MAVLinkSchema;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * User: ton Date: 02.12.13 Time: 20:56
  */
 public abstract class MAVLinkPort extends MAVLinkNode {
+    private static final int QUEUE_CAPACITY = 256;
+
+    protected MAVLinkIOThread ioThread = null;
+    protected MAVLinkFrameQueue inputQueue = null;      // Filled by I/O thread, taken in update()
+    protected MAVLinkFrameQueue outputQueue = null;     // Filled in handleFrame(), written by I/O thread
+
     protected MAVLinkPort(MAVLinkSchema schema) {
         super(schema);
     }
 
+    /**
+     * Do reading and writing in I/O thread, should be called before open(). Without I/O thread port reads the channel
+     * in update() and writes in handleFrame().
+     */
+    public void setIOThread(MAVLinkIOThread ioThread) {
+        this.ioThread = ioThread;
+        if (ioThread != null && inputQueue == null) {
+            inputQueue = new MAVLinkFrameQueue(QUEUE_CAPACITY);
+            outputQueue = new MAVLinkFrameQueue(QUEUE_CAPACITY);
+        }
+    }
+
+    /**
+     * Queue frame to be written by I/O thread. Callers must be synchronized on the port, output queue has one
+     * producer.
+     */
+    protected void queueFrame(ByteBuffer frame) {
+        outputQueue.offer(frame);
+        ioThread.requestWrite();
+    }
+
+    /**
+     * Read all available frames to the input queue, called in I/O thread.
+     *
+     * @return true if any frames were received
+     */
+    protected boolean readFrames(MAVLinkFrameReader frameReader) throws IOException {
+        boolean received = false;
+        ByteBuffer frame;
+        while ((frame = frameReader.read()) != null) {
+            inputQueue.offer(frame);
+            received = true;
+        }
+        return received;
+    }
+
+    /**
+     * Write all frames from the output queue, called in I/O thread.
+     */
+    protected void writeFrames(WritableByteChannel channel) throws IOException {
+        ByteBuffer frame;
+        while ((frame = outputQueue.peek()) != null) {
+            try {
+                channel.write(frame);
+            } finally {
+                outputQueue.release();
+            }
+        }
+    }
+
     public abstract void open() throws IOException;
 
     public abstract void close() throws IOException;
@@ -2,6 +2,7 @@ package me.drton.jmavsim;
 
 import me.drton.jmavlib.mavlink.MAVLinkMessage;
 import me.drton.jmavlib.mavlink.MAVLinkSchema;
+import me.drton.jmavsim.mavlink.Heartbeat;
 
 /**
  * MAVLinkSystem represents generic MAVLink system with SysID and ComponentID that can handle and send messages.
@@ -13,11 +14,21 @@ public class MAVLinkSystem extends MAVLinkNode {
     public int componentId;
     private long heartbeatInterval = 1000;
     private long heartbeatLast = 0;
+    private final Heartbeat heartbeat = new Heartbeat();
+    private final MAVLinkMessageEncoder encoder;
 
     public MAVLinkSystem(MAVLinkSchema schema, int sysId, int componentId) {
         super(schema);
         this.sysId = sysId;
         this.componentId = componentId;
+        this.encoder = new MAVLinkMessageEncoder(sysId, componentId);
+    }
+
+    /**
+     * Send generated message from this system, doesn't allocate memory.
+     */
+    protected void sendMessage(MAVLinkPayload payload) {
+        sendFrame(payload.getMsgType(), encoder.encode(payload));
     }
 
     @Override
@@ -28,9 +39,7 @@ public class MAVLinkSystem extends MAVLinkNode {
     public void update(long t) {
         if (t - heartbeatLast >= heartbeatInterval) {
             heartbeatLast = t;
-            MAVLinkMessage msg = new MAVLinkMessage(schema, "HEARTBEAT", sysId, componentId);
-            msg.set("mavlink_version", 3);
-            sendMessage(msg);
+            sendMessage(heartbeat);
         }
     }
 }
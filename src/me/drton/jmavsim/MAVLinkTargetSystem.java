@@ -1,7 +1,9 @@
 package me.drton.jmavsim;
 
-import me.drton.jmavlib.mavlink.MAVLinkMessage;
 import me.drton.jmavlib.mavlink.MAVLinkSchema;
+import me.drton.jmavsim.mavlink.GlobalPositionInt;
+import me.drton.jmavsim.mavlink.ParamRequestList;
+import me.drton.jmavsim.mavlink.ParamValue;
 
 /**
  * User: ton Date: 13.02.14 Time: 22:51
@@ -10,26 +12,27 @@ public class MAVLinkTargetSystem extends MAVLinkSystem {
     private Target target;
     private long msgIntervalPosition = 200;
     private long msgLastPosition = 0;
+    private final ParamValue paramValue = new ParamValue();
+    private final GlobalPositionInt globalPositionInt = new GlobalPositionInt();
 
     public MAVLinkTargetSystem(MAVLinkSchema schema, int sysId, int componentId, Target target) {
         super(schema, sysId, componentId);
         this.target = target;
+        setMessageFilter(ParamRequestList.ID);
     }
 
     @Override
-    public void handleMessage(MAVLinkMessage msg) {
-        super.handleMessage(msg);
-        if ("PARAM_REQUEST_LIST".equals(msg.getMsgName())) {
-            int target_system = msg.getInt("target_system");
-            int target_component = msg.getInt("target_component");
-            if (target_system == sysId && (target_component == componentId || target_component == 0)) {
-                MAVLinkMessage reply = new MAVLinkMessage(schema, "PARAM_VALUE", sysId, componentId);
-                reply.set("param_count", 1);
-                reply.set("param_id", "DUMMY");
-                reply.set("param_type", 9);
-                sendMessage(reply);
+    protected boolean handlePayload(MAVLinkPayload payload) {
+        if (payload.getMsgType() == ParamRequestList.ID) {
+            ParamRequestList msg = (ParamRequestList) payload;
+            if (msg.target_system == sysId && (msg.target_component == componentId || msg.target_component == 0)) {
+                paramValue.param_count = 1;
+                MAVLinkPayload.setString(paramValue.param_id, "DUMMY");
+                paramValue.param_type = 9;
+                sendMessage(paramValue);
             }
         }
+        return false;
     }
 
     @Override
@@ -37,16 +40,15 @@ public class MAVLinkTargetSystem extends MAVLinkSystem {
         super.update(t);
         if (t - msgLastPosition > msgIntervalPosition) {
             msgLastPosition = t;
-            MAVLinkMessage msg_target = new MAVLinkMessage(schema, "GLOBAL_POSITION_INT", sysId, componentId);
             GNSSReport p = target.getGlobalPosition();
-            msg_target.set("time_boot_ms", t * 1000);
-            msg_target.set("lat", (long) (p.position.lat * 1e7));
-            msg_target.set("lon", (long) (p.position.lon * 1e7));
-            msg_target.set("alt", (long) (p.position.alt * 1e3));
-            msg_target.set("vx", (int) (p.velocity.x * 100));
-            msg_target.set("vy", (int) (p.velocity.y * 100));
-            msg_target.set("vz", (int) (p.velocity.z * 100));
-            sendMessage(msg_target);
+            globalPositionInt.time_boot_ms = t * 1000;
+            globalPositionInt.lat = (int) (p.lat * 1e7);
+            globalPositionInt.lon = (int) (p.lon * 1e7);
+            globalPositionInt.alt = (int) (p.alt * 1e3);
+            globalPositionInt.vx = (int) (p.velocity.x * 100);
+            globalPositionInt.vy = (int) (p.velocity.y * 100);
+            globalPositionInt.vz = (int) (p.velocity.z * 100);
+            sendMessage(globalPositionInt);
         }
     }
 }
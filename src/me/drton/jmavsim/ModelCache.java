@@ -0,0 +1,373 @@
+package me.drton.jmavsim;
+
+import com.sun.j3d.loaders.Scene;
+import com.sun.j3d.loaders.objectfile.ObjectFile;
+import com.sun.j3d.utils.geometry.GeometryInfo;
+
+import javax.media.j3d.Appearance;
+import javax.media.j3d.BoundingBox;
+import javax.media.j3d.Geometry;
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.Group;
+import javax.media.j3d.Material;
+import javax.media.j3d.Node;
+import javax.media.j3d.Shape3D;
+import javax.media.j3d.SharedGroup;
+import javax.media.j3d.TriangleArray;
+import javax.vecmath.Color3f;
+import javax.vecmath.Point3d;
+import javax.vecmath.Point3f;
+import javax.vecmath.Vector3f;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of 3D models loaded from .obj files. Each file is parsed once per process, its geometry is stored in binary
+ * sidecar file (model file name + ".bin") that is memory-mapped on next starts instead of parsing. Objects with the
+ * same model share geometry via SharedGroup, each object references it with own Link.
+ * <p/>
+ * Sidecar is valid while the .obj file and material libraries it references (mtllib) have the same length and
+ * modification time as when it was written.
+ * <p/>
+ * Sidecar layout, little-endian: magic "JVSMOBJ2" (8 bytes), source file length (8), source file modification time
+ * (8), material libraries count (4), then for each library: name length (4), name relative to source file directory
+ * (UTF-8), file length (8), modification time (8), then shapes count (4), then for each shape: material flag (4), material: ambient, emissive, diffuse, specular colors
+ * and shininess (13 floats), vertex count N (4), normals flag (4), triangle vertex coordinates (3 * N floats), normals
+ * (3 * N floats, if flag is set).
+ */
+public class ModelCache {
+    public static final String SIDECAR_SUFFIX = ".bin";
+    private static final long MAGIC = 0x4A56534D4F424A32L;  // "JVSMOBJ2"
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MATERIAL_SIZE = 13;
+
+    private static final Map<String, Model> models = new HashMap<String, Model>();
+
+    /**
+     * Shared geometry of the model and its bounds.
+     */
+    public static class Model {
+        private final SharedGroup sharedGroup;
+        private final BoundingBox bounds;
+
+        Model(SharedGroup sharedGroup, BoundingBox bounds) {
+            this.sharedGroup = sharedGroup;
+            this.bounds = bounds;
+        }
+
+        public SharedGroup getSharedGroup() {
+            return sharedGroup;
+        }
+
+        public BoundingBox getBounds() {
+            return bounds;
+        }
+    }
+
+    /**
+     * Geometry of one shape, non-indexed triangles.
+     */
+    private static class ShapeData {
+        float[] material;   // null if shape has no material
+        float[] coordinates;
+        float[] normals;    // null if shape has no normals
+    }
+
+    private ModelCache() {
+    }
+
+    /**
+     * Get model, load it from sidecar or parse .obj file on first request.
+     *
+     * @param modelFile .obj file name
+     */
+    public static synchronized Model getModel(String modelFile) throws FileNotFoundException {
+        Model model = models.get(modelFile);
+        if (model == null) {
+            File file = new File(modelFile);
+            File sidecar = new File(modelFile + SIDECAR_SUFFIX);
+            List<ShapeData> shapes = readSidecar(file, sidecar);
+            if (shapes == null) {
+                shapes = parseModel(modelFile);
+                writeSidecar(file, sidecar, shapes);
+            }
+            model = createModel(shapes);
+            models.put(modelFile, model);
+        }
+        return model;
+    }
+
+    private static List<ShapeData> parseModel(String modelFile) throws FileNotFoundException {
+        ObjectFile objectFile = new ObjectFile();
+        Scene scene = objectFile.load(modelFile);
+        List<ShapeData> shapes = new ArrayList<ShapeData>();
+        collectShapes(scene.getSceneGroup(), shapes);
+        return shapes;
+    }
+
+    private static void collectShapes(Node node, List<ShapeData> shapes) {
+        if (node instanceof Group) {
+            Enumeration<?> children = ((Group) node).getAllChildren();
+            while (children.hasMoreElements()) {
+                collectShapes((Node) children.nextElement(), shapes);
+            }
+        } else if (node instanceof Shape3D) {
+            Shape3D shape = (Shape3D) node;
+            for (int i = 0; i < shape.numGeometries(); i++) {
+                Geometry geometry = shape.getGeometry(i);
+                if (geometry instanceof GeometryArray) {
+                    shapes.add(getShapeData((GeometryArray) geometry, shape.getAppearance()));
+                }
+            }
+        }
+    }
+
+    private static ShapeData getShapeData(GeometryArray geometry, Appearance appearance) {
+        // Convert any primitive (e.g. strips produced by loader) to plain triangles
+        GeometryInfo geometryInfo = new GeometryInfo(geometry);
+        geometryInfo.convertToIndexedTriangles();
+        geometryInfo.unindexify();
+        ShapeData shape = new ShapeData();
+        Point3f[] coordinates = geometryInfo.getCoordinates();
+        shape.coordinates = new float[coordinates.length * 3];
+        for (int i = 0; i < coordinates.length; i++) {
+            shape.coordinates[i * 3] = coordinates[i].x;
+            shape.coordinates[i * 3 + 1] = coordinates[i].y;
+            shape.coordinates[i * 3 + 2] = coordinates[i].z;
+        }
+        Vector3f[] normals = geometryInfo.getNormals();
+        if (normals != null && normals.length == coordinates.length) {
+            shape.normals = new float[normals.length * 3];
+            for (int i = 0; i < normals.length; i++) {
+                shape.normals[i * 3] = normals[i].x;
+                shape.normals[i * 3 + 1] = normals[i].y;
+                shape.normals[i * 3 + 2] = normals[i].z;
+            }
+        }
+        Material material = appearance != null ? appearance.getMaterial() : null;
+        if (material != null) {
+            Color3f color = new Color3f();
+            shape.material = new float[MATERIAL_SIZE];
+            material.getAmbientColor(color);
+            putColor(color, shape.material, 0);
+            material.getEmissiveColor(color);
+            putColor(color, shape.material, 3);
+            material.getDiffuseColor(color);
+            putColor(color, shape.material, 6);
+            material.getSpecularColor(color);
+            putColor(color, shape.material, 9);
+            shape.material[12] = material.getShininess();
+        }
+        return shape;
+    }
+
+    private static void putColor(Color3f color, float[] values, int offset) {
+        values[offset] = color.x;
+        values[offset + 1] = color.y;
+        values[offset + 2] = color.z;
+    }
+
+    private static Model createModel(List<ShapeData> shapes) {
+        SharedGroup sharedGroup = new SharedGroup();
+        Point3d lower = new Point3d(Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE);
+        Point3d upper = new Point3d(-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE);
+        for (ShapeData shape : shapes) {
+            int vertexCount = shape.coordinates.length / 3;
+            if (vertexCount == 0) {
+                continue;
+            }
+            int format = GeometryArray.COORDINATES | (shape.normals != null ? GeometryArray.NORMALS : 0);
+            TriangleArray geometry = new TriangleArray(vertexCount, format);
+            geometry.setCoordinates(0, shape.coordinates);
+            if (shape.normals != null) {
+                geometry.setNormals(0, shape.normals);
+            }
+            Appearance appearance = new Appearance();
+            if (shape.material != null) {
+                float[] m = shape.material;
+                appearance.setMaterial(new Material(new Color3f(m[0], m[1], m[2]), new Color3f(m[3], m[4], m[5]),
+                        new Color3f(m[6], m[7], m[8]), new Color3f(m[9], m[10], m[11]), m[12]));
+            }
+            sharedGroup.addChild(new Shape3D(geometry, appearance));
+            for (int i = 0; i < shape.coordinates.length; i += 3) {
+                lower.x = Math.min(lower.x, shape.coordinates[i]);
+                lower.y = Math.min(lower.y, shape.coordinates[i + 1]);
+                lower.z = Math.min(lower.z, shape.coordinates[i + 2]);
+                upper.x = Math.max(upper.x, shape.coordinates[i]);
+                upper.y = Math.max(upper.y, shape.coordinates[i + 1]);
+                upper.z = Math.max(upper.z, shape.coordinates[i + 2]);
+            }
+        }
+        if (lower.x > upper.x) {
+            lower.set(0.0, 0.0, 0.0);
+            upper.set(0.0, 0.0, 0.0);
+        }
+        sharedGroup.compile();
+        return new Model(sharedGroup, new BoundingBox(lower, upper));
+    }
+
+    /**
+     * @return shapes, or null if sidecar doesn't exist, is outdated or invalid
+     */
+    private static List<ShapeData> readSidecar(File source, File sidecar) {
+        if (!sidecar.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile file = new RandomAccessFile(sidecar, "r");
+            try {
+                MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                if (buffer.getLong() != MAGIC || buffer.getLong() != source.length() ||
+                        buffer.getLong() != source.lastModified()) {
+                    return null;
+                }
+                int librariesNum = buffer.getInt();
+                for (int i = 0; i < librariesNum; i++) {
+                    byte[] name = new byte[buffer.getInt()];
+                    buffer.get(name);
+                    File library = new File(source.getAbsoluteFile().getParentFile(), new String(name, UTF8));
+                    if (buffer.getLong() != library.length() || buffer.getLong() != library.lastModified()) {
+                        return null;
+                    }
+                }
+                int shapesNum = buffer.getInt();
+                List<ShapeData> shapes = new ArrayList<ShapeData>(shapesNum);
+                for (int s = 0; s < shapesNum; s++) {
+                    ShapeData shape = new ShapeData();
+                    boolean hasMaterial = buffer.getInt() != 0;
+                    float[] material = new float[MATERIAL_SIZE];
+                    readFloats(buffer, material);
+                    shape.material = hasMaterial ? material : null;
+                    int vertexCount = buffer.getInt();
+                    boolean hasNormals = buffer.getInt() != 0;
+                    shape.coordinates = new float[vertexCount * 3];
+                    readFloats(buffer, shape.coordinates);
+                    if (hasNormals) {
+                        shape.normals = new float[vertexCount * 3];
+                        readFloats(buffer, shape.normals);
+                    }
+                    shapes.add(shape);
+                }
+                return shapes;
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // Truncated or corrupted file
+            return null;
+        }
+    }
+
+    private static void readFloats(ByteBuffer buffer, float[] values) {
+        FloatBuffer floats = buffer.asFloatBuffer();
+        floats.get(values);
+        buffer.position(buffer.position() + values.length * 4);
+    }
+
+    /**
+     * Get names of material libraries referenced by .obj file.
+     */
+    private static List<String> getMaterialLibraries(File source) throws IOException {
+        List<String> libraries = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(source));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = line.trim().split("\\s+");
+                if (tokens[0].equals("mtllib")) {
+                    for (int i = 1; i < tokens.length; i++) {
+                        libraries.add(tokens[i]);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return libraries;
+    }
+
+    /**
+     * Write sidecar, errors are ignored, e.g. if models directory is read-only.
+     */
+    private static void writeSidecar(File source, File sidecar, List<ShapeData> shapes) {
+        List<byte[]> libraryNames = new ArrayList<byte[]>();
+        try {
+            for (String library : getMaterialLibraries(source)) {
+                libraryNames.add(library.getBytes(UTF8));
+            }
+        } catch (IOException e) {
+            System.out.println("Can't write model cache " + sidecar + ": " + e);
+            return;
+        }
+        int size = 32;
+        for (byte[] name : libraryNames) {
+            size += 20 + name.length;
+        }
+        for (ShapeData shape : shapes) {
+            size += 12 + MATERIAL_SIZE * 4 + shape.coordinates.length * 4 +
+                    (shape.normals != null ? shape.normals.length * 4 : 0);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(MAGIC);
+        buffer.putLong(source.length());
+        buffer.putLong(source.lastModified());
+        buffer.putInt(libraryNames.size());
+        for (byte[] name : libraryNames) {
+            File library = new File(source.getAbsoluteFile().getParentFile(), new String(name, UTF8));
+            buffer.putInt(name.length);
+            buffer.put(name);
+            buffer.putLong(library.length());
+            buffer.putLong(library.lastModified());
+        }
+        buffer.putInt(shapes.size());
+        for (ShapeData shape : shapes) {
+            buffer.putInt(shape.material != null ? 1 : 0);
+            buffer.asFloatBuffer().put(shape.material != null ? shape.material : new float[MATERIAL_SIZE]);
+            buffer.position(buffer.position() + MATERIAL_SIZE * 4);
+            buffer.putInt(shape.coordinates.length / 3);
+            buffer.putInt(shape.normals != null ? 1 : 0);
+            buffer.asFloatBuffer().put(shape.coordinates);
+            buffer.position(buffer.position() + shape.coordinates.length * 4);
+            if (shape.normals != null) {
+                buffer.asFloatBuffer().put(shape.normals);
+                buffer.position(buffer.position() + shape.normals.length * 4);
+            }
+        }
+        buffer.flip();
+        File tmp = new File(sidecar.getPath() + ".tmp");
+        try {
+            RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+            try {
+                file.setLength(0);
+                file.getChannel().write(buffer);
+            } finally {
+                file.close();
+            }
+            if (!tmp.renameTo(sidecar)) {
+                sidecar.delete();
+                tmp.renameTo(sidecar);
+            }
+        } catch (IOException e) {
+            System.out.println("Can't write model cache " + sidecar + ": " + e);
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package me.drton.jmavsim;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fast seedable pseudo-random generator for sensor and environment noise, xoshiro256** with Gaussian values from
+ * Marsaglia polar method, second value of each pair is cached.
+ * Not thread safe, each object should use own instance, so parallel updates don't contend and runs are reproducible
+ * if seeds are set.
+ */
+public class NoiseGenerator implements Snapshottable {
+    private static final AtomicLong seedUniquifier = new AtomicLong(0x2545F4914F6CDD1DL);
+    private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+    private long s0;
+    private long s1;
+    private long s2;
+    private long s3;
+    private double nextGaussian;
+    private boolean haveNextGaussian = false;
+
+    /**
+     * Create generator with unique seed.
+     */
+    public NoiseGenerator() {
+        setSeed(seedUniquifier.addAndGet(0x9E3779B97F4A7C15L) ^ System.nanoTime());
+    }
+
+    public NoiseGenerator(long seed) {
+        setSeed(seed);
+    }
+
+    /**
+     * Reset state, generators with the same seed produce the same sequence.
+     */
+    public void setSeed(long seed) {
+        // Expand seed with SplitMix64, state must not be all zero
+        long x = seed;
+        x += 0x9E3779B97F4A7C15L;
+        s0 = mix(x);
+        x += 0x9E3779B97F4A7C15L;
+        s1 = mix(x);
+        x += 0x9E3779B97F4A7C15L;
+        s2 = mix(x);
+        x += 0x9E3779B97F4A7C15L;
+        s3 = mix(x);
+        haveNextGaussian = false;
+    }
+
+    @Override
+    public void saveState(SimulationSnapshot snapshot) {
+        snapshot.putLong(s0);
+        snapshot.putLong(s1);
+        snapshot.putLong(s2);
+        snapshot.putLong(s3);
+        snapshot.putDouble(nextGaussian);
+        snapshot.putBoolean(haveNextGaussian);
+    }
+
+    @Override
+    public void restoreState(SimulationSnapshot snapshot) {
+        s0 = snapshot.getLong();
+        s1 = snapshot.getLong();
+        s2 = snapshot.getLong();
+        s3 = snapshot.getLong();
+        nextGaussian = snapshot.getDouble();
+        haveNextGaussian = snapshot.getBoolean();
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public long nextLong() {
+        long result = Long.rotateLeft(s1 * 5, 7) * 9;
+        long t = s1 << 17;
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+        return result;
+    }
+
+    /**
+     * @return uniformly distributed value in [0, 1)
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @return normally distributed value with zero mean and unit standard deviation
+     */
+    public double nextGaussian() {
+        if (haveNextGaussian) {
+            haveNextGaussian = false;
+            return nextGaussian;
+        }
+        double v1;
+        double v2;
+        double s;
+        do {
+            v1 = 2.0 * nextDouble() - 1.0;
+            v2 = 2.0 * nextDouble() - 1.0;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1.0 || s == 0.0);
+        double multiplier = Math.sqrt(-2.0 * Math.log(s) / s);
+        nextGaussian = v2 * multiplier;
+        haveNextGaussian = true;
+        return v1 * multiplier;
+    }
+}
@@ -0,0 +1,119 @@
+package me.drton.jmavsim;
+
+import javax.vecmath.Matrix3d;
+import javax.vecmath.Vector3d;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Triple buffer of pose snapshots of kinematic objects, published by the world thread after each update and read by
+ * visualizer without locking, so rendering never blocks the simulation.
+ * Writer fills back buffer and swaps it with the middle one, reader swaps middle buffer with the front one if it is
+ * newer. Only one writer thread and one reader thread are allowed.
+ */
+public class PoseBuffer {
+    /**
+     * Poses of all objects at one time, layout of each pose: position x, y, z, rotation matrix m00..m22 row by row.
+     */
+    public static class Snapshot {
+        public static final int POSE_SIZE = 12;
+
+        private List<KinematicObject> objects = new ArrayList<KinematicObject>();
+        private double[] poses = new double[0];
+        private long time;
+
+        /**
+         * @return objects in order of poses
+         */
+        public List<KinematicObject> getObjects() {
+            return objects;
+        }
+
+        public int getObjectsNum() {
+            return objects.size();
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public void getPosition(int index, Vector3d position) {
+            int i = index * POSE_SIZE;
+            position.set(poses[i], poses[i + 1], poses[i + 2]);
+        }
+
+        public void getRotation(int index, Matrix3d rotation) {
+            int i = index * POSE_SIZE + 3;
+            rotation.setRow(0, poses[i], poses[i + 1], poses[i + 2]);
+            rotation.setRow(1, poses[i + 3], poses[i + 4], poses[i + 5]);
+            rotation.setRow(2, poses[i + 6], poses[i + 7], poses[i + 8]);
+        }
+
+        private void write(List<KinematicObject> objectsNew, long t) {
+            if (objects.size() != objectsNew.size()) {
+                objects = new ArrayList<KinematicObject>(objectsNew);
+                poses = new double[objectsNew.size() * POSE_SIZE];
+            }
+            time = t;
+            for (int n = 0; n < objects.size(); n++) {
+                KinematicObject object = objectsNew.get(n);
+                objects.set(n, object);
+                Vector3d p = object.getPosition();
+                Matrix3d r = object.getRotation();
+                int i = n * POSE_SIZE;
+                poses[i] = p.x;
+                poses[i + 1] = p.y;
+                poses[i + 2] = p.z;
+                poses[i + 3] = r.m00;
+                poses[i + 4] = r.m01;
+                poses[i + 5] = r.m02;
+                poses[i + 6] = r.m10;
+                poses[i + 7] = r.m11;
+                poses[i + 8] = r.m12;
+                poses[i + 9] = r.m20;
+                poses[i + 10] = r.m21;
+                poses[i + 11] = r.m22;
+            }
+        }
+    }
+
+    private static final int NEW_FLAG = 4;     // Set in middle index when middle buffer wasn't read yet
+
+    private final Snapshot[] snapshots = {new Snapshot(), new Snapshot(), new Snapshot()};
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;       // Owned by writer
+    private int front = 2;      // Owned by reader
+    private final List<KinematicObject> objects = new ArrayList<KinematicObject>();
+    private int worldObjectsNum = -1;
+
+    /**
+     * Write poses of all kinematic objects of the world and publish them. Called by world thread.
+     */
+    public void publish(World world, long t) {
+        List<WorldObject> worldObjects = world.getObjects();
+        if (worldObjects.size() != worldObjectsNum) {
+            objects.clear();
+            for (WorldObject object : worldObjects) {
+                if (object instanceof KinematicObject) {
+                    objects.add((KinematicObject) object);
+                }
+            }
+            worldObjectsNum = worldObjects.size();
+        }
+        snapshots[back].write(objects, t);
+        back = middle.getAndSet(back | NEW_FLAG) & ~NEW_FLAG;
+    }
+
+    /**
+     * Get the latest published snapshot. Called by visualizer thread.
+     *
+     * @return snapshot, valid until next call, empty if nothing was published yet
+     */
+    public Snapshot getLatest() {
+        if ((middle.get() & NEW_FLAG) != 0) {
+            front = middle.getAndSet(front) & ~NEW_FLAG;
+        }
+        return snapshots[front];
+    }
+}
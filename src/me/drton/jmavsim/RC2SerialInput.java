@@ -30,6 +30,8 @@ public class RC2SerialInput extends MAVLinkNode {
         super(schema);
         this.sysId = sysId;
         this.componentId = componentId;
+        // Only sends messages
+        setMessageFilter();
     }
 
     public void setDebug(boolean debug) {
@@ -0,0 +1,51 @@
+package me.drton.jmavsim;
+
+import javax.vecmath.Vector3d;
+
+/**
+ * Classic 4th order Runge-Kutta integrator. Evaluates forces and torques 4 times per step, but allows much larger
+ * steps at the same accuracy. Controls are held constant over the step.
+ */
+public class RK4Integrator implements Integrator {
+    private final double[] state = new double[DynamicObject.STATE_SIZE];
+    private final double[] tmp = new double[DynamicObject.STATE_SIZE];
+    private final double[] k1 = new double[DynamicObject.STATE_SIZE];
+    private final double[] k2 = new double[DynamicObject.STATE_SIZE];
+    private final double[] k3 = new double[DynamicObject.STATE_SIZE];
+    private final double[] k4 = new double[DynamicObject.STATE_SIZE];
+    private final Vector3d acceleration = new Vector3d();
+    private final Vector3d angularAcceleration = new Vector3d();
+
+    @Override
+    public void step(DynamicObject object, double dt) {
+        // Keep accelerations at the beginning of the step, they are reported as current accelerations of object
+        acceleration.set(object.acceleration);
+        angularAcceleration.set(object.angularAcceleration);
+        object.getState(state);
+        object.getCurrentStateDerivative(state, k1);
+        addScaled(tmp, state, k1, dt * 0.5);
+        object.getStateDerivative(tmp, k2);
+        addScaled(tmp, state, k2, dt * 0.5);
+        object.getStateDerivative(tmp, k3);
+        addScaled(tmp, state, k3, dt);
+        object.getStateDerivative(tmp, k4);
+        double k = dt / 6.0;
+        for (int i = 0; i < state.length; i++) {
+            state[i] += k * (k1[i] + 2.0 * (k2[i] + k3[i]) + k4[i]);
+        }
+        // Quaternion
+        double n = 1.0 / Math.sqrt(state[6] * state[6] + state[7] * state[7] + state[8] * state[8] + state[9] * state[9]);
+        for (int i = 6; i < 10; i++) {
+            state[i] *= n;
+        }
+        object.setState(state);
+        object.acceleration.set(acceleration);
+        object.angularAcceleration.set(angularAcceleration);
+    }
+
+    private static void addScaled(double[] res, double[] x, double[] dx, double k) {
+        for (int i = 0; i < res.length; i++) {
+            res[i] = x[i] + dx[i] * k;
+        }
+    }
+}
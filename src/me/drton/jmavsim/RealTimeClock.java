@@ -0,0 +1,36 @@
+package me.drton.jmavsim;
+
+/**
+ * Simulation clock that follows system wall clock, optionally scaled by time-scale factor to run faster or slower
+ * than real time.
+ */
+public class RealTimeClock implements SimulationClock {
+    private final double speed;
+    private final long startTime;
+    private final long startNanoTime;
+
+    public RealTimeClock() {
+        this(1.0);
+    }
+
+    /**
+     * @param speed time-scale factor, 1.0 for real time
+     */
+    public RealTimeClock(double speed) {
+        this.speed = speed;
+        this.startTime = System.currentTimeMillis();
+        this.startNanoTime = System.nanoTime();
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    @Override
+    public long getTime() {
+        if (speed == 1.0) {
+            return System.currentTimeMillis();
+        }
+        return startTime + (long) ((System.nanoTime() - startNanoTime) * speed / 1000000.0);
+    }
+}
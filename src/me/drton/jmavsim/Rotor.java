@@ -4,20 +4,39 @@ package me.drton.jmavsim;
  * Simple rotor model. Thrust and torque are proportional to control signal filtered with simple LPF (RC filter), to
  * simulate spin up/slow down.
  */
-public class Rotor {
+public class Rotor implements Snapshottable {
     private double tau = 1.0;
     private double fullThrust = 1.0;
     private double fullTorque = 1.0;
     private double w = 0.0;
-    private long lastTime = -1;
     private double control = 0.0;
+    private double filterDt = -1.0;
+    private double filterK = 0.0;
 
-    public void update(long t) {
-        if (lastTime >= 0) {
-            double dt = (t - lastTime) / 1000.0;
-            w += (control - w) * (1.0 - Math.exp(-dt / tau));
+    /**
+     * Update rotor state.
+     *
+     * @param dt time step [s]
+     */
+    public void update(double dt) {
+        if (dt != filterDt) {
+            // Physics step is usually fixed, so filter coefficient is calculated only once
+            filterDt = dt;
+            filterK = 1.0 - Math.exp(-dt / tau);
         }
-        lastTime = t;
+        w += (control - w) * filterK;
+    }
+
+    @Override
+    public void saveState(SimulationSnapshot snapshot) {
+        snapshot.putDouble(w);
+        snapshot.putDouble(control);
+    }
+
+    @Override
+    public void restoreState(SimulationSnapshot snapshot) {
+        w = snapshot.getDouble();
+        control = snapshot.getDouble();
     }
 
     /**
@@ -28,6 +47,13 @@ public class Rotor {
         this.control = control;
     }
 
+    /**
+     * Get control signal
+     */
+    public double getControl() {
+        return control;
+    }
+
     /**
      * Set full thrust
      * @param fullThrust [N]
@@ -50,6 +76,7 @@ public class Rotor {
      */
     public void setTimeConstant(double timeConstant) {
         this.tau = timeConstant;
+        this.filterDt = -1.0;
     }
 
     /**
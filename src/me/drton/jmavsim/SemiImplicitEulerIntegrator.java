@@ -0,0 +1,15 @@
+package me.drton.jmavsim;
+
+/**
+ * Semi-implicit (symplectic) Euler integrator: velocity and rotation rate are advanced first, position and attitude
+ * are advanced with the new values. Same cost as explicit Euler but much more stable for oscillating motion.
+ */
+public class SemiImplicitEulerIntegrator implements Integrator {
+    @Override
+    public void step(DynamicObject object, double dt) {
+        object.velocity.scaleAdd(dt, object.acceleration, object.velocity);
+        object.position.scaleAdd(dt, object.velocity, object.position);
+        object.rotationRate.scaleAdd(dt, object.angularAcceleration, object.rotationRate);
+        object.rotateAttitude(object.rotationRate, dt);
+    }
+}
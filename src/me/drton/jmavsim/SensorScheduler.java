@@ -0,0 +1,100 @@
+package me.drton.jmavsim;
+
+/**
+ * Schedules sensor channels at configured rates and phases on the simulation clock, so only sensors that are due are
+ * computed and sent. Due times are kept on fixed grid: phase + k * interval, missed periods are skipped.
+ */
+public class SensorScheduler implements Snapshottable {
+    public static final int IMU = 0;     // Accelerometer and gyroscope
+    public static final int MAG = 1;
+    public static final int BARO = 2;
+    public static final int GPS = 3;
+    public static final int CHANNELS_NUM = 4;
+
+    public static final double DEFAULT_IMU_RATE = 250.0;
+    public static final double DEFAULT_MAG_RATE = 100.0;
+    public static final double DEFAULT_BARO_RATE = 50.0;
+    public static final double DEFAULT_GPS_RATE = 5.0;
+
+    private final long[] intervals = new long[CHANNELS_NUM];   // [us]
+    private final long[] phases = new long[CHANNELS_NUM];      // [us]
+    private final long[] nextTimes = new long[CHANNELS_NUM];   // [us], -1 if not initialized yet
+    private int due = 0;
+
+    public SensorScheduler() {
+        setRate(IMU, DEFAULT_IMU_RATE, 0);
+        setRate(MAG, DEFAULT_MAG_RATE, 0);
+        setRate(BARO, DEFAULT_BARO_RATE, 0);
+        setRate(GPS, DEFAULT_GPS_RATE, 0);
+    }
+
+    /**
+     * Set channel rate.
+     *
+     * @param channel channel, e.g. IMU
+     * @param rate    output rate [Hz]
+     * @param phase   offset of outputs from multiples of interval, [ms]
+     */
+    public void setRate(int channel, double rate, long phase) {
+        if (rate <= 0.0) {
+            throw new IllegalArgumentException("Sensor rate must be positive: " + rate);
+        }
+        intervals[channel] = Math.max(Math.round(1000000.0 / rate), 1);
+        phases[channel] = (phase * 1000) % intervals[channel];
+        nextTimes[channel] = -1;
+    }
+
+    /**
+     * @return channel output interval, [us]
+     */
+    public long getInterval(int channel) {
+        return intervals[channel];
+    }
+
+    /**
+     * Find channels that are due at given time and schedule their next outputs.
+     *
+     * @param t current time [ms]
+     * @return bitmask of due channels, bit N corresponds to channel N
+     */
+    public int update(long t) {
+        long tu = t * 1000;
+        due = 0;
+        for (int i = 0; i < CHANNELS_NUM; i++) {
+            long interval = intervals[i];
+            if (nextTimes[i] < 0) {
+                // First grid point not earlier than current time
+                long n = (tu - phases[i] + interval - 1) / interval;
+                nextTimes[i] = phases[i] + n * interval;
+            }
+            if (tu >= nextTimes[i]) {
+                due |= 1 << i;
+                nextTimes[i] += ((tu - nextTimes[i]) / interval + 1) * interval;
+            }
+        }
+        return due;
+    }
+
+    @Override
+    public void saveState(SimulationSnapshot snapshot) {
+        for (int i = 0; i < CHANNELS_NUM; i++) {
+            snapshot.putLong(nextTimes[i]);
+        }
+        snapshot.putLong(due);
+    }
+
+    @Override
+    public void restoreState(SimulationSnapshot snapshot) {
+        for (int i = 0; i < CHANNELS_NUM; i++) {
+            nextTimes[i] = snapshot.getLong();
+        }
+        due = (int) snapshot.getLong();
+    }
+
+    /**
+     * @return true if channel was due on last update()
+     */
+    public boolean isDue(int channel) {
+        return (due & (1 << channel)) != 0;
+    }
+}
@@ -16,9 +16,12 @@ public interface Sensors {
 
     double getPressureAlt();
 
+    /**
+     * Get GNSS report for current time, called at GNSS output rate.
+     *
+     * @return report, or null if there is no fix yet
+     */
     GNSSReport getGNSS();
 
-    boolean isGPSUpdated();
-
     void update(long t);
 }
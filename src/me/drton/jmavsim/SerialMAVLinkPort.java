@@ -1,6 +1,8 @@
 package me.drton.jmavsim;
 
 import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortEventListener;
 import jssc.SerialPortException;
 import me.drton.jmavlib.mavlink.MAVLinkMessage;
 import me.drton.jmavlib.mavlink.MAVLinkSchema;
@@ -18,7 +20,20 @@ public class SerialMAVLinkPort extends MAVLinkPort {
     private SerialPort serialPort;
     private ByteChannel channel = null;
     private MAVLinkStream stream;
+    private MAVLinkFrameReader frameReader;
     private boolean debug = false;
+    // Serial port is not selectable channel, I/O thread only writes to it, reading is done in jssc event thread
+    private final MAVLinkIOThread.Handler ioHandler = new MAVLinkIOThread.Handler() {
+        @Override
+        public boolean handleRead() throws IOException {
+            return readFrames(frameReader);
+        }
+
+        @Override
+        public void handleWrite() throws IOException {
+            writeFrames(channel);
+        }
+    };
 
     // connection information
     String portName;
@@ -97,12 +112,39 @@ public class SerialMAVLinkPort extends MAVLinkPort {
                 }
             }
         };
-        stream = new MAVLinkStream(schema, channel);
-        stream.setDebug(debug);
+        if (schema != null) {
+            stream = new MAVLinkStream(schema, channel);
+            stream.setDebug(debug);
+        }
+        frameReader = new MAVLinkFrameReader(channel);
+        if (ioThread != null) {
+            ioThread.register(null, ioHandler);
+            try {
+                serialPort.addEventListener(new SerialPortEventListener() {
+                    @Override
+                    public void serialEvent(SerialPortEvent event) {
+                        if (event.isRXCHAR()) {
+                            try {
+                                if (ioHandler.handleRead()) {
+                                    ioThread.signalInput();
+                                }
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                        }
+                    }
+                }, SerialPort.MASK_RXCHAR);
+            } catch (SerialPortException e) {
+                throw new IOException(e);
+            }
+        }
     }
 
     @Override
     public void close() throws IOException {
+        if (ioThread != null) {
+            ioThread.unregister(ioHandler);
+        }
         try {
             serialPort.closePort();
         } catch (SerialPortException e) {
@@ -117,26 +159,58 @@ public class SerialMAVLinkPort extends MAVLinkPort {
     }
 
     @Override
-    public void handleMessage(MAVLinkMessage msg) {
+    public synchronized void handleMessage(MAVLinkMessage msg) {
         if (isOpened()) {
+            if (ioThread != null) {
+                queueFrame(msg.encode());
+                return;
+            }
             try {
-                stream.write(msg);
+                if (stream != null) {
+                    stream.write(msg);
+                } else {
+                    channel.write(msg.encode());
+                }
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
     }
 
+    @Override
+    public synchronized void handleFrame(int msgType, ByteBuffer frame) {
+        if (isOpened()) {
+            if (ioThread != null) {
+                queueFrame(frame);
+                return;
+            }
+            int position = frame.position();
+            try {
+                channel.write(frame);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            frame.position(position);
+        }
+    }
+
     @Override
     public void update(long t) {
-        MAVLinkMessage msg;
+        if (ioThread != null) {
+            ByteBuffer frame;
+            while ((frame = inputQueue.peek()) != null) {
+                sendFrame(MAVLinkFrame.getMsgType(frame), frame);
+                inputQueue.release();
+            }
+            return;
+        }
         while (isOpened()) {
             try {
-                msg = stream.read();
-                if (msg == null) {
+                ByteBuffer frame = frameReader.read();
+                if (frame == null) {
                     break;
                 }
-                sendMessage(msg);
+                sendFrame(MAVLinkFrame.getMsgType(frame), frame);
             } catch (IOException e) {
                 e.printStackTrace();
                 return;
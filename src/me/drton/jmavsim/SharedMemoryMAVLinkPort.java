@@ -0,0 +1,182 @@
+package me.drton.jmavsim;
+
+import me.drton.jmavlib.mavlink.MAVLinkMessage;
+import me.drton.jmavlib.mavlink.MAVLinkSchema;
+import me.drton.jmavsim.mavlink.MAVLinkMessages;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MAVLink port over memory-mapped file, for autopilot running on the same host.
+ * Frames are exchanged without syscalls, both sides poll the rings.
+ * <p/>
+ * File layout, all integers are little-endian, positions are 64-bit and must be accessed atomically:
+ * <pre>
+ * Offset         Size  Description
+ * 0              4     Magic, 0x4D53564A ("JVSM")
+ * 4              4     Layout version, 1
+ * 8              4     Ring data size N, power of two, [bytes]
+ * 12             52    Reserved
+ * 64             128+N Ring 0: simulator to autopilot
+ * 192+N          128+N Ring 1: autopilot to simulator
+ *
+ * Ring:
+ * 0              8     Write position, total bytes written, stored by producer with release semantics
+ * 64             8     Read position, total bytes read, stored by consumer with release semantics
+ * 128            N     Data
+ * </pre>
+ * Data contains records aligned to 4 bytes: 32-bit frame length L followed by L bytes of MAVLink 1.0 frame.
+ * Record never wraps around the end of data: if it doesn't fit, producer writes length -1 (wrap marker) and the record
+ * starts at the beginning of data. Producer writes record only if N - (write position - read position) is enough for
+ * it, then advances write position. Consumer reads records while read position is less than write position, then
+ * advances read position.
+ * <p/>
+ * Simulator creates and initializes the file on open(), autopilot side (setup with autopilotSide = true) attaches to
+ * existing file, so the same class can be used as stand-in peer in Java.
+ */
+public class SharedMemoryMAVLinkPort extends MAVLinkPort {
+    public static final int MAGIC = 0x4D53564A;
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 64;
+    public static final int DEFAULT_RING_SIZE = 65536;
+
+    private String path;
+    private int ringSize = DEFAULT_RING_SIZE;
+    private boolean autopilotSide = false;
+    private RandomAccessFile file = null;
+    private MappedByteBuffer buffer = null;
+    private SharedMemoryRing txRing;
+    private SharedMemoryRing rxRing;
+    private long droppedFrames = 0;
+    private boolean debug = false;
+
+    public SharedMemoryMAVLinkPort(MAVLinkSchema schema) {
+        super(schema);
+    }
+
+    /**
+     * @param path          file path, e.g. in /dev/shm
+     * @param ringSize      size of each ring data, power of two, [bytes], used only by simulator side
+     * @param autopilotSide true to attach to existing file as autopilot
+     */
+    public void setup(String path, int ringSize, boolean autopilotSide) {
+        if (Integer.bitCount(ringSize) != 1 || ringSize < MAVLinkFrame.MAX_LENGTH * 2) {
+            throw new IllegalArgumentException("Ring size must be power of two and fit at least two frames");
+        }
+        this.path = path;
+        this.ringSize = ringSize;
+        this.autopilotSide = autopilotSide;
+    }
+
+    @Override
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+    }
+
+    @Override
+    public void open() throws IOException {
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            throw new IOException("Shared memory port requires little-endian platform");
+        }
+        file = new RandomAccessFile(path, "rw");
+        FileChannel channel = file.getChannel();
+        if (autopilotSide) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                file.close();
+                throw new IOException("Not a jMAVSim shared memory file: " + path);
+            }
+            ringSize = header.getInt(8);
+        }
+        int ringLength = SharedMemoryRing.getRingLength(ringSize);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH + 2 * ringLength);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        SharedMemoryRing ring0 = new SharedMemoryRing(buffer, HEADER_LENGTH, ringSize);
+        SharedMemoryRing ring1 = new SharedMemoryRing(buffer, HEADER_LENGTH + ringLength, ringSize);
+        if (autopilotSide) {
+            txRing = ring1;
+            rxRing = ring0;
+        } else {
+            // Magic is written last, so peer doesn't attach to partially initialized file
+            buffer.putInt(0, 0);
+            ring0.reset();
+            ring1.reset();
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, ringSize);
+            buffer.putInt(0, MAGIC);
+            txRing = ring0;
+            rxRing = ring1;
+        }
+        if (debug) System.out.println("Shared memory port opened: " + path + ", ring size: " + ringSize);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Mapping is released by GC, Java has no explicit unmap
+        buffer = null;
+        txRing = null;
+        rxRing = null;
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    @Override
+    public boolean isOpened() {
+        return buffer != null;
+    }
+
+    @Override
+    public synchronized void handleMessage(MAVLinkMessage msg) {
+        handleFrame(msg.getMsgType(), msg.encode());
+    }
+
+    @Override
+    public synchronized void handleFrame(int msgType, ByteBuffer frame) {
+        if (isOpened() && !txRing.write(frame)) {
+            if (debug) System.out.println("Shared memory port: ring full, dropped msg.type: " + msgType);
+        }
+    }
+
+    @Override
+    public void update(long t) {
+        if (!isOpened()) {
+            return;
+        }
+        ByteBuffer frame;
+        while ((frame = rxRing.peek()) != null) {
+            if (isValidFrame(frame)) {
+                sendFrame(MAVLinkFrame.getMsgType(frame), frame);
+            } else {
+                droppedFrames++;
+            }
+            rxRing.release();
+        }
+    }
+
+    private static boolean isValidFrame(ByteBuffer frame) {
+        int start = frame.position();
+        if (frame.remaining() < MAVLinkFrame.NON_PAYLOAD_LENGTH || frame.get(start) != MAVLinkFrame.START_OF_FRAME) {
+            return false;
+        }
+        int msgType = MAVLinkFrame.getMsgType(frame);
+        int crcExtra = MAVLinkMessages.getCRCExtra(msgType);
+        return crcExtra >= 0 && MAVLinkFrame.getPayloadLength(frame) == MAVLinkMessages.getPayloadLength(msgType) &&
+                frame.remaining() == MAVLinkMessages.getPayloadLength(msgType) + MAVLinkFrame.NON_PAYLOAD_LENGTH &&
+                MAVLinkFrame.checkCRC(frame, start, crcExtra);
+    }
+
+    /**
+     * @return number of received frames dropped because they were invalid
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+}
@@ -0,0 +1,150 @@
+package me.drton.jmavsim;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Single producer single consumer ring of MAVLink frames in shared memory, see SharedMemoryMAVLinkPort for layout.
+ * Positions are published with release stores and read with acquire loads, so the peer may be other process.
+ */
+public class SharedMemoryRing {
+    public static final int WRITE_POSITION_OFFSET = 0;
+    public static final int READ_POSITION_OFFSET = 64;
+    public static final int DATA_OFFSET = 128;
+    public static final int RECORD_HEADER_LENGTH = 4;
+    public static final int WRAP_MARKER = -1;
+
+    // Positions are 8-byte aligned longs in direct buffer, so access modes of the view are atomic
+    private static final VarHandle POSITION =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final ByteBuffer buffer;        // Whole mapped file, used for data access
+    private final ByteBuffer view;          // Returned by peek()
+    private final ByteBuffer writeView;     // Used by write() to copy frames
+    private final int dataOffset;           // Absolute position of ring data in the buffer
+    private final int dataSize;
+    private final int writePositionIndex;   // Absolute position of the write position in the buffer
+    private final int readPositionIndex;    // Absolute position of the read position in the buffer
+    private long readPosition;              // Consumer: position of the record returned by peek()
+    private long nextReadPosition;          // Consumer: position after the record returned by peek()
+    private long writePosition;             // Producer: own copy of write position
+    private long droppedFrames = 0;
+
+    /**
+     * @param buffer   mapped file
+     * @param offset   absolute position of the ring header in the buffer
+     * @param dataSize size of ring data, power of two
+     */
+    public SharedMemoryRing(MappedByteBuffer buffer, int offset, int dataSize) {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.writeView = buffer.duplicate();
+        this.dataOffset = offset + DATA_OFFSET;
+        this.dataSize = dataSize;
+        writePositionIndex = offset + WRITE_POSITION_OFFSET;
+        readPositionIndex = offset + READ_POSITION_OFFSET;
+        writePosition = (long) POSITION.getAcquire(this.buffer, writePositionIndex);
+        readPosition = (long) POSITION.getAcquire(this.buffer, readPositionIndex);
+        nextReadPosition = readPosition;
+    }
+
+    /**
+     * @return size of ring including header, [bytes]
+     */
+    public static int getRingLength(int dataSize) {
+        return DATA_OFFSET + dataSize;
+    }
+
+    /**
+     * Reset positions, only when peer is not attached.
+     */
+    public void reset() {
+        writePosition = 0;
+        readPosition = 0;
+        nextReadPosition = 0;
+        POSITION.setVolatile(buffer, writePositionIndex, 0L);
+        POSITION.setVolatile(buffer, readPositionIndex, 0L);
+    }
+
+    /**
+     * Copy frame to the ring, position of the frame is not changed. Producer side.
+     *
+     * @return false if ring is full and frame was dropped
+     */
+    public boolean write(ByteBuffer frame) {
+        int length = frame.remaining();
+        int recordLength = align(RECORD_HEADER_LENGTH + length);
+        int offset = (int) (writePosition & (dataSize - 1));
+        int skip = offset + recordLength > dataSize ? dataSize - offset : 0;
+        long free = dataSize - (writePosition - (long) POSITION.getAcquire(buffer, readPositionIndex));
+        if (free < skip + recordLength) {
+            droppedFrames++;
+            return false;
+        }
+        if (skip > 0) {
+            buffer.putInt(dataOffset + offset, WRAP_MARKER);
+            offset = 0;
+        }
+        buffer.putInt(dataOffset + offset, length);
+        int start = dataOffset + offset + RECORD_HEADER_LENGTH;
+        writeView.limit(start + length);
+        writeView.position(start);
+        int position = frame.position();
+        writeView.put(frame);
+        frame.position(position);
+        writePosition += skip + recordLength;
+        POSITION.setRelease(buffer, writePositionIndex, writePosition);
+        return true;
+    }
+
+    /**
+     * Get next frame without removing it from the ring. Consumer side.
+     *
+     * @return frame view, valid until release(), or null if ring is empty
+     */
+    public ByteBuffer peek() {
+        long available = (long) POSITION.getAcquire(buffer, writePositionIndex);
+        while (readPosition < available) {
+            int offset = (int) (readPosition & (dataSize - 1));
+            int length = buffer.getInt(dataOffset + offset);
+            if (length == WRAP_MARKER) {
+                readPosition += dataSize - offset;
+                continue;
+            }
+            if (length < 0 || length > MAVLinkFrame.MAX_LENGTH) {
+                // Corrupted ring, skip all available data
+                readPosition = available;
+                droppedFrames++;
+                break;
+            }
+            int start = dataOffset + offset + RECORD_HEADER_LENGTH;
+            nextReadPosition = readPosition + align(RECORD_HEADER_LENGTH + length);
+            view.limit(start + length);
+            view.position(start);
+            return view;
+        }
+        return null;
+    }
+
+    /**
+     * Remove frame returned by peek() from the ring. Consumer side.
+     */
+    public void release() {
+        readPosition = nextReadPosition;
+        POSITION.setRelease(buffer, readPositionIndex, readPosition);
+    }
+
+    /**
+     * @return number of frames dropped because ring was full (producer) or corrupted (consumer)
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    private static int align(int length) {
+        return (length + 3) & ~3;
+    }
+}
@@ -0,0 +1,129 @@
+package me.drton.jmavsim;
+
+import me.drton.jmavlib.mavlink.MAVLinkMessage;
+import me.drton.jmavsim.mavlink.HilControls;
+import me.drton.jmavsim.mavlink.HilSensor;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Round trip check of SharedMemoryMAVLinkPort with Java stand-in autopilot.
+ * Simulator side sends HIL_SENSOR, autopilot side answers with HIL_CONTROLS, both sides poll the rings.
+ * Prints round trip time percentiles, exits with code 1 if frames were lost or corrupted.
+ * <p/>
+ * Usage: SharedMemoryTest [file]
+ */
+public class SharedMemoryTest {
+    private static final int WARMUP_ROUNDS = 20000;
+    private static final int MEASURE_ROUNDS = 100000;
+
+    private static class Endpoint extends MAVLinkSystem {
+        private final HilSensor hilSensor = new HilSensor();
+        private final HilControls hilControls = new HilControls();
+        private final boolean autopilot;
+        private volatile long lastTime = -1;
+
+        Endpoint(int sysId, int componentId, boolean autopilot) {
+            super(null, sysId, componentId);
+            this.autopilot = autopilot;
+            setMessageFilter(autopilot ? HilSensor.ID : HilControls.ID);
+        }
+
+        @Override
+        public void handleMessage(MAVLinkMessage msg) {
+        }
+
+        @Override
+        public void handleFrame(int msgType, ByteBuffer frame) {
+            if (autopilot) {
+                // Stand-in autopilot: answer sensors with controls
+                hilSensor.decodeFrame(frame);
+                hilControls.time_usec = hilSensor.time_usec;
+                hilControls.throttle = hilSensor.zacc;
+                sendMessage(hilControls);
+            } else {
+                hilControls.decodeFrame(frame);
+                lastTime = hilControls.time_usec;
+            }
+        }
+
+        @Override
+        public void update(long t) {
+        }
+
+        void sendSensors(long time) {
+            hilSensor.time_usec = time;
+            hilSensor.zacc = -9.81f;
+            sendMessage(hilSensor);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File file = args.length > 0 ? new File(args[0]) : File.createTempFile("jmavsim", ".shm");
+        file.deleteOnExit();
+        World world = new World();
+
+        final SharedMemoryMAVLinkPort simPort = new SharedMemoryMAVLinkPort(null);
+        simPort.setup(file.getPath(), SharedMemoryMAVLinkPort.DEFAULT_RING_SIZE, false);
+        simPort.open();
+        MAVLinkConnection simConnection = new MAVLinkConnection(world);
+        Endpoint simulator = new Endpoint(1, 51, false);
+        simConnection.addNode(simPort);
+        simConnection.addNode(simulator);
+
+        final SharedMemoryMAVLinkPort autopilotPort = new SharedMemoryMAVLinkPort(null);
+        autopilotPort.setup(file.getPath(), SharedMemoryMAVLinkPort.DEFAULT_RING_SIZE, true);
+        autopilotPort.open();
+        MAVLinkConnection autopilotConnection = new MAVLinkConnection(world);
+        autopilotConnection.addNode(autopilotPort);
+        autopilotConnection.addNode(new Endpoint(1, 1, true));
+
+        Thread autopilotThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    autopilotPort.update(0);
+                    Thread.yield();
+                }
+            }
+        }, "Autopilot");
+        autopilotThread.setDaemon(true);
+        autopilotThread.start();
+
+        long[] rtt = new long[MEASURE_ROUNDS];
+        boolean lost = false;
+        for (int i = 0; i < WARMUP_ROUNDS + MEASURE_ROUNDS && !lost; i++) {
+            long t0 = System.nanoTime();
+            simulator.sendSensors(i);
+            while (simulator.lastTime != i) {
+                simPort.update(0);
+                if (System.nanoTime() - t0 > 1000000000L) {
+                    System.out.println("Timeout in round " + i);
+                    lost = true;
+                    break;
+                }
+                Thread.yield();
+            }
+            if (i >= WARMUP_ROUNDS) {
+                rtt[i - WARMUP_ROUNDS] = System.nanoTime() - t0;
+            }
+        }
+        autopilotThread.interrupt();
+        autopilotThread.join();
+        simPort.close();
+        autopilotPort.close();
+
+        Arrays.sort(rtt);
+        System.out.printf("Round trips: %d, RTT median: %.1f us, p99: %.1f us, max: %.1f us%n", MEASURE_ROUNDS,
+                rtt[MEASURE_ROUNDS / 2] / 1e3, rtt[MEASURE_ROUNDS * 99 / 100] / 1e3, rtt[MEASURE_ROUNDS - 1] / 1e3);
+        System.out.println("Dropped frames: simulator " + simPort.getDroppedFrames() + ", autopilot " +
+                autopilotPort.getDroppedFrames());
+        if (lost || simPort.getDroppedFrames() > 0 || autopilotPort.getDroppedFrames() > 0) {
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+}
@@ -1,12 +1,11 @@
 package me.drton.jmavsim;
 
 import javax.vecmath.Vector3d;
-import java.util.Random;
 
 /**
  * User: ton Date: 28.11.13 Time: 22:40
  */
-public class SimpleEnvironment extends Environment {
+public class SimpleEnvironment extends Environment implements Snapshottable {
     private Vector3d magField = new Vector3d(0.21523, 0.0, 0.42741);
     private Vector3d wind = new Vector3d(0.0, 0.0, 0.0);
     private double groundLevel = 0.0;
@@ -14,8 +13,9 @@ public class SimpleEnvironment extends Environment {
     private double windDeviation = 20.0;
     private double windT = 2.0;
     private Vector3d windCurrent = new Vector3d(0.0, 0.0, 0.0);
-    private Random random = new Random();
-    private long lastTime = 0;
+    private NoiseGenerator random = new NoiseGenerator();
+    private long lastTime = -1;
+    private Vector3d windDelta = new Vector3d();
 
         /** set this always to the sampling in degrees for the table below */
     private int SAMPLING_RES      = 10;
@@ -68,6 +68,22 @@ public class SimpleEnvironment extends Environment {
         this.wind = wind;
     }
 
+    /**
+     * Set wind gusts intensity.
+     *
+     * @param windDeviation standard deviation of wind change rate
+     */
+    public void setWindDeviation(double windDeviation) {
+        this.windDeviation = windDeviation;
+    }
+
+    /**
+     * Set seed of wind gusts generator, to make runs reproducible.
+     */
+    public void setNoiseSeed(long seed) {
+        random.setSeed(seed);
+    }
+
     @Override
     public double getGroundLevel(Vector3d point) {
         return groundLevel;
@@ -77,16 +93,28 @@ public class SimpleEnvironment extends Environment {
         this.groundLevel = groundLevel;
     }
 
+    @Override
+    public void saveState(SimulationSnapshot snapshot) {
+        snapshot.putTuple(windCurrent);
+        snapshot.putLong(lastTime);
+        random.saveState(snapshot);
+    }
+
+    @Override
+    public void restoreState(SimulationSnapshot snapshot) {
+        snapshot.getTuple(windCurrent);
+        lastTime = snapshot.getLong();
+        random.restoreState(snapshot);
+    }
+
     public void update(long t) {
-        double dt = lastTime == 0 ? 0.0 : (t - lastTime) / 1000.0;
+        double dt = lastTime < 0 ? 0.0 : (t - lastTime) / 1000.0;
         lastTime = t;
-        Vector3d r = new Vector3d(random.nextGaussian() * windDeviation, random.nextGaussian() * windDeviation, 0.0);
-        Vector3d dev = new Vector3d(wind);
-        dev.sub(windCurrent);
-        dev.scale(1.0 / windT);
-        r.add(dev);
-        r.scale(dt);
-        windCurrent.add(r);
+        windDelta.sub(wind, windCurrent);
+        windDelta.scale(1.0 / windT);
+        windDelta.x += random.nextGaussian() * windDeviation;
+        windDelta.y += random.nextGaussian() * windDeviation;
+        windCurrent.scaleAdd(dt, windDelta, windCurrent);
     }
 
     public double getMagDeclination(double lat, double lon) {
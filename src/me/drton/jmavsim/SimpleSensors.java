@@ -1,24 +1,26 @@
 package me.drton.jmavsim;
 
-import me.drton.jmavlib.geo.GlobalPositionProjector;
-import me.drton.jmavlib.processing.DelayLine;
-
 import javax.vecmath.Matrix3d;
 import javax.vecmath.Vector3d;
 
 /**
  * User: ton Date: 27.11.13 Time: 19:06
  */
-public class SimpleSensors implements Sensors {
+public class SimpleSensors implements Sensors, Snapshottable {
     private DynamicObject object;
-    private GlobalPositionProjector globalProjector = new GlobalPositionProjector();
-    private DelayLine<GNSSReport> gpsDelayLine = new DelayLine<GNSSReport>();
+    private GNSSProjector globalProjector = new GNSSProjector();
+    private GNSSDelayLine gpsDelayLine = new GNSSDelayLine();
     private long gpsStartTime = 0;
-    private long gpsInterval = 200;
-    private long gpsLast = 0;
-    private GNSSReport gps = new GNSSReport();
-    private boolean gpsUpdated = false;
+    private long gpsLast = -1;
+    private GNSSReport gpsCurrent = new GNSSReport();
+    private GNSSReport gps = null;      // Output of delay line, null until first report passes it
+    private long time = 0;
     private double pressureAltOffset = 0.0;
+    private NoiseGenerator noise = new NoiseGenerator();
+    // Preallocated output vectors, valid until next call of corresponding getter
+    private Vector3d acc = new Vector3d();
+    private Vector3d gyro = new Vector3d();
+    private Vector3d mag = new Vector3d();
 
     @Override
     public void setObject(DynamicObject object) {
@@ -26,29 +28,29 @@ public class SimpleSensors implements Sensors {
         globalProjector.init(object.getWorld().getGlobalReference());
     }
 
-    public double randomNoise(double stdDev) {
-        double x0;
-        double b0, b1;
-
-        do {
-            b0 = Math.random();
-            b1 = Math.random();
-        } while (b0 <= Float.intBitsToFloat(0x1));
-
-        x0 = java.lang.Math.sqrt(-2.0 * java.lang.Math.log(b0)) * java.lang.Math.cos(Math.PI * 2.0 * b1);
-
-        if (java.lang.Double.isInfinite(x0) || java.lang.Double.isNaN(x0)) {
-            x0 = 0.0;
-        }
-
-        return x0 * (stdDev * stdDev);
+    /**
+     * Set seed of sensor noise generator, to make runs reproducible.
+     */
+    public void setNoiseSeed(long seed) {
+        noise.setSeed(seed);
     }
 
-    public Vector3d addZeroMeanNoise(Vector3d vIn, double stdDev) {
+    public double randomNoise(double stdDev) {
+        return noise.nextGaussian() * (stdDev * stdDev);
+    }
 
-        return new Vector3d(vIn.x + randomNoise(stdDev),
-                            vIn.y + randomNoise(stdDev),
-                            vIn.z + randomNoise(stdDev));
+    /**
+     * Add zero mean noise to vector in place.
+     *
+     * @param v      vector to add noise
+     * @param stdDev standard deviation of noise
+     * @return the same vector
+     */
+    public Vector3d addZeroMeanNoise(Vector3d v, double stdDev) {
+        v.x += randomNoise(stdDev);
+        v.y += randomNoise(stdDev);
+        v.z += randomNoise(stdDev);
+        return v;
     }
 
     public void setGPSStartTime(long time) {
@@ -59,71 +61,85 @@ public class SimpleSensors implements Sensors {
         gpsDelayLine.setDelay(delay);
     }
 
-    public void setGPSInterval(long gpsInterval) {
-        this.gpsInterval = gpsInterval;
-    }
-
     public void setPressureAltOffset(double pressureAltOffset) {
         this.pressureAltOffset = pressureAltOffset;
     }
 
     @Override
     public Vector3d getAcc() {
-        Vector3d accBody = new Vector3d(object.getAcceleration());
-        accBody.sub(object.getWorld().getEnvironment().getG());
-        Matrix3d rot = new Matrix3d(object.getRotation());
-        rot.transpose();
-        rot.transform(accBody);
-        accBody = addZeroMeanNoise(accBody, 0.05);
-        return accBody;
+        acc.sub(object.getAcceleration(), object.getWorld().getEnvironment().getG());
+        toBodyFrame(acc);
+        return addZeroMeanNoise(acc, 0.05);
     }
 
     @Override
     public Vector3d getGyro() {
-        return addZeroMeanNoise(object.getRotationRate(), 0.01);
+        gyro.set(object.getRotationRate());
+        return addZeroMeanNoise(gyro, 0.01);
     }
 
     @Override
     public Vector3d getMag() {
-        Vector3d mag = new Vector3d(object.getWorld().getEnvironment().getMagField(object.getPosition()));
-        Matrix3d rot = new Matrix3d(object.getRotation());
-        rot.transpose();
-        rot.transform(mag);
+        mag.set(object.getWorld().getEnvironment().getMagField(object.getPosition()));
+        toBodyFrame(mag);
         return addZeroMeanNoise(mag, 0.005);
     }
 
+    /**
+     * Rotate vector from earth to body frame in place, i.e. multiply by transposed rotation matrix.
+     */
+    private void toBodyFrame(Vector3d v) {
+        Matrix3d rot = object.getRotation();
+        double x = rot.m00 * v.x + rot.m10 * v.y + rot.m20 * v.z;
+        double y = rot.m01 * v.x + rot.m11 * v.y + rot.m21 * v.z;
+        double z = rot.m02 * v.x + rot.m12 * v.y + rot.m22 * v.z;
+        v.set(x, y, z);
+    }
+
     @Override
     public double getPressureAlt() {
         return -object.getPosition().z + pressureAltOffset;
     }
 
+    /**
+     * GPS is sampled on call, at most once per update, so sampling rate is defined by the caller.
+     */
     @Override
     public GNSSReport getGNSS() {
+        if (time > gpsStartTime && time != gpsLast) {
+            gpsLast = time;
+            globalProjector.reproject(object.getPosition(), gpsCurrent);
+            gpsCurrent.eph = 1.0;
+            gpsCurrent.epv = 1.0;
+            gpsCurrent.velocity.set(object.getVelocity());
+            gpsCurrent.fix = 3;
+            gpsCurrent.time = time * 1000;
+            gps = gpsDelayLine.getOutput(time, gpsCurrent);
+        }
         return gps;
     }
 
     @Override
-    public boolean isGPSUpdated() {
-        boolean res = gpsUpdated;
-        gpsUpdated = false;
-        return res;
+    public void update(long t) {
+        time = t;
     }
 
     @Override
-    public void update(long t) {
-        // GPS
-        if (t > gpsStartTime && t > gpsLast + gpsInterval) {
-            gpsLast = t;
-            gpsUpdated = true;
-            GNSSReport gpsCurrent = new GNSSReport();
-            Vector3d pos = object.getPosition();
-            gpsCurrent.position = globalProjector.reproject(new double[]{pos.x, pos.y, pos.z});
-            gpsCurrent.eph = 1.0;
-            gpsCurrent.epv = 1.0;
-            gpsCurrent.velocity = new Vector3d(object.getVelocity());
-            gpsCurrent.fix = 3;
-            gpsCurrent.time = System.currentTimeMillis() * 1000;
-            gps = gpsDelayLine.getOutput(t, gpsCurrent);
-        }
+    public void saveState(SimulationSnapshot snapshot) {
+        snapshot.putLong(time);
+        snapshot.putLong(gpsLast);
+        gpsCurrent.saveState(snapshot);
+        gpsDelayLine.saveState(snapshot);
+        noise.saveState(snapshot);
+    }
+
+    @Override
+    public void restoreState(SimulationSnapshot snapshot) {
+        time = snapshot.getLong();
+        gpsLast = snapshot.getLong();
+        gpsCurrent.restoreState(snapshot);
+        gpsDelayLine.restoreState(snapshot);
+        gps = gpsDelayLine.getLastOutput();
+        noise.restoreState(snapshot);
     }
 }
@@ -0,0 +1,14 @@
+package me.drton.jmavsim;
+
+/**
+ * Source of simulation time for the World.
+ * All objects get time from World.update(t), so the clock defines how simulation time relates to real time.
+ */
+public interface SimulationClock {
+    /**
+     * Get current simulation time.
+     *
+     * @return time in [ms]
+     */
+    long getTime();
+}
@@ -0,0 +1,164 @@
+package me.drton.jmavsim;
+
+import javax.vecmath.Matrix3d;
+import javax.vecmath.Quat4d;
+import javax.vecmath.Tuple3d;
+import java.util.Arrays;
+
+/**
+ * Snapshot of simulation state, sequence of primitive values written by Snapshottable objects.
+ * Arrays grow on first save and are reused, so saving to the same snapshot again and restoring don't allocate memory.
+ */
+public class SimulationSnapshot {
+    private double[] doubles = new double[256];
+    private long[] longs = new long[64];
+    private int doublesNum = 0;
+    private int longsNum = 0;
+    private int doublePos = 0;
+    private int longPos = 0;
+    private long time = 0;
+
+    /**
+     * @return simulation time of the snapshot [ms]
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Clear snapshot to save new state.
+     *
+     * @param time simulation time [ms]
+     */
+    void startSave(long time) {
+        this.time = time;
+        doublesNum = 0;
+        longsNum = 0;
+    }
+
+    /**
+     * Rewind snapshot to restore state from the beginning.
+     */
+    void startRestore() {
+        doublePos = 0;
+        longPos = 0;
+    }
+
+    /**
+     * @return true if all saved values were restored
+     */
+    boolean isRestored() {
+        return doublePos == doublesNum && longPos == longsNum;
+    }
+
+    public void putDouble(double value) {
+        if (doublesNum == doubles.length) {
+            doubles = Arrays.copyOf(doubles, doubles.length * 2);
+        }
+        doubles[doublesNum++] = value;
+    }
+
+    public void putDoubles(double[] values, int offset, int length) {
+        while (doublesNum + length > doubles.length) {
+            doubles = Arrays.copyOf(doubles, doubles.length * 2);
+        }
+        System.arraycopy(values, offset, doubles, doublesNum, length);
+        doublesNum += length;
+    }
+
+    public void putLong(long value) {
+        if (longsNum == longs.length) {
+            longs = Arrays.copyOf(longs, longs.length * 2);
+        }
+        longs[longsNum++] = value;
+    }
+
+    public void putBoolean(boolean value) {
+        putLong(value ? 1 : 0);
+    }
+
+    public void putTuple(Tuple3d tuple) {
+        putDouble(tuple.x);
+        putDouble(tuple.y);
+        putDouble(tuple.z);
+    }
+
+    public void putQuat(Quat4d quat) {
+        putDouble(quat.x);
+        putDouble(quat.y);
+        putDouble(quat.z);
+        putDouble(quat.w);
+    }
+
+    public void putMatrix(Matrix3d m) {
+        putDouble(m.m00);
+        putDouble(m.m01);
+        putDouble(m.m02);
+        putDouble(m.m10);
+        putDouble(m.m11);
+        putDouble(m.m12);
+        putDouble(m.m20);
+        putDouble(m.m21);
+        putDouble(m.m22);
+    }
+
+    public double getDouble() {
+        if (doublePos >= doublesNum) {
+            throw new IllegalStateException("Snapshot doesn't match objects, no more values");
+        }
+        return doubles[doublePos++];
+    }
+
+    public void getDoubles(double[] values, int offset, int length) {
+        if (doublePos + length > doublesNum) {
+            throw new IllegalStateException("Snapshot doesn't match objects, no more values");
+        }
+        System.arraycopy(doubles, doublePos, values, offset, length);
+        doublePos += length;
+    }
+
+    /**
+     * Step back to re-read last restored double values.
+     *
+     * @param length number of values
+     */
+    public void rewindDoubles(int length) {
+        doublePos -= length;
+    }
+
+    public long getLong() {
+        if (longPos >= longsNum) {
+            throw new IllegalStateException("Snapshot doesn't match objects, no more values");
+        }
+        return longs[longPos++];
+    }
+
+    public boolean getBoolean() {
+        return getLong() != 0;
+    }
+
+    public void getTuple(Tuple3d tuple) {
+        tuple.x = getDouble();
+        tuple.y = getDouble();
+        tuple.z = getDouble();
+    }
+
+    public void getQuat(Quat4d quat) {
+        quat.x = getDouble();
+        quat.y = getDouble();
+        quat.z = getDouble();
+        quat.w = getDouble();
+    }
+
+    public void getMatrix(Matrix3d m) {
+        m.m00 = getDouble();
+        m.m01 = getDouble();
+        m.m02 = getDouble();
+        m.m10 = getDouble();
+        m.m11 = getDouble();
+        m.m12 = getDouble();
+        m.m20 = getDouble();
+        m.m21 = getDouble();
+        m.m22 = getDouble();
+    }
+}
@@ -2,6 +2,9 @@ package me.drton.jmavsim;
 
 import me.drton.jmavlib.geo.LatLonAlt;
 import me.drton.jmavlib.mavlink.MAVLinkSchema;
+import me.drton.jmavsim.mavlink.HilControls;
+import me.drton.jmavsim.mavlink.HilGps;
+import me.drton.jmavsim.mavlink.HilSensor;
 import me.drton.jmavsim.vehicle.AbstractMulticopter;
 import me.drton.jmavsim.vehicle.AbstractVehicle;
 import me.drton.jmavsim.vehicle.Quadcopter;
@@ -14,8 +17,10 @@ import javax.xml.parsers.ParserConfigurationException;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Scanner;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -27,13 +32,22 @@ import java.util.concurrent.Executors;
 public class Simulator implements Runnable {
 
     public static boolean USE_SERIAL_PORT = false;
+    public static boolean USE_SHARED_MEMORY = false;
     public static boolean COMMUNICATE_WITH_QGC = true;
+    public static boolean LOCKSTEP = false;
+    public static boolean HEADLESS = false;
     public static final int DEFAULT_AUTOPILOT_PORT = 14560;
     public static final int DEFAULT_QGC_BIND_PORT = 0;
     public static final int DEFAULT_QGC_PEER_PORT = 14550;
     public static final String DEFAULT_SERIAL_PATH = "/dev/tty.usbmodem1";
     public static final int DEFAULT_SERIAL_BAUD_RATE = 230400;
     public static final String LOCAL_HOST = "127.0.0.1";
+    private static final long LOCKSTEP_INPUT_TIMEOUT = 100;    // Max wait for autopilot input, in ms
+    private static final long LOCKSTEP_SPIN_TIME = 1000000;    // Poll ports without sleeping for this time, in ns
+    public static final int DEFAULT_LOCKSTEP_STEP = 4;  // Simulation step in lockstep mode, in ms
+    public static final double DEFAULT_PHYSICS_RATE = 1000.0;  // Physics integration rate, in Hz
+    public static final double VEHICLE_SPACING = 2.0;  // Distance between vehicles on start, in m
+    public static final int VEHICLES_IN_ROW = 10;
 
     private static String autopilotIpAddress = LOCAL_HOST;
     private static int autopilotPort = DEFAULT_AUTOPILOT_PORT;
@@ -42,6 +56,14 @@ public class Simulator implements Runnable {
     private static int qgcPeerPort = DEFAULT_QGC_PEER_PORT;
     private static String serialPath = DEFAULT_SERIAL_PATH;
     private static int serialBaudRate = DEFAULT_SERIAL_BAUD_RATE;
+    private static String sharedMemoryPath = null;
+    private static double speedFactor = 1.0;
+    private static long startTime = 0;  // Initial simulation time in lockstep mode, in ms
+    private static double physicsRate = DEFAULT_PHYSICS_RATE;
+    private static double maxFPS = Visualizer3D.DEFAULT_MAX_FPS;
+    private static int vehiclesNum = 1;
+    private static Long noiseSeed = null;   // Seed of all noise generators, random if not set
+    private static String recordPath = null;    // Flight recorder file, no recording if not set
 
     private static HashSet<Integer> monitorMessageIds = new HashSet<Integer>();
     private static boolean monitorMessage = false;
@@ -50,8 +72,11 @@ public class Simulator implements Runnable {
     Visualizer3D visualizer;
     AbstractMulticopter vehicle;
     CameraGimbal2D gimbal;
+    List<MAVLinkPort> autopilotPorts = new ArrayList<MAVLinkPort>();
 
     private World world;
+    private LockstepClock lockstepClock = null;
+    private MAVLinkIOThread ioThread;
     private int sleepInterval = 2;  // Main loop interval, in ms
     private int simDelayMax = 10;  // Max delay between simulated and real time to skip samples in simulator, in ms
     private ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
@@ -60,6 +85,14 @@ public class Simulator implements Runnable {
     public Simulator() throws IOException, InterruptedException, ParserConfigurationException, SAXException {
         // Create world
         world = new World();
+        if (LOCKSTEP) {
+            // Time advances only when autopilot answered previous step
+            // Time doesn't depend on wall clock, so sensor schedule and timestamps are the same in every run
+            lockstepClock = new LockstepClock(startTime, DEFAULT_LOCKSTEP_STEP);
+            world.setClock(lockstepClock);
+        } else if (speedFactor != 1.0) {
+            world.setClock(new RealTimeClock(speedFactor));
+        }
         // Set global reference point
         // Zurich Irchel Park: 47.397742, 8.545594, 488m
         // Seattle downtown (15 deg declination): 47.592182, -122.316031, 86m
@@ -67,39 +100,24 @@ public class Simulator implements Runnable {
         LatLonAlt referencePos = new LatLonAlt(47.397742, 8.545594, 488.0);
         world.setGlobalReference(referencePos);
 
-        MAVLinkSchema schema = new MAVLinkSchema("mavlink/message_definitions/common.xml");
+        // All messages are sent, received and forwarded as frames using message classes generated at build time,
+        // so message definitions XML is not loaded
+        MAVLinkSchema schema = null;
 
-        // Create MAVLink connections
-        MAVLinkConnection connHIL = new MAVLinkConnection(world);
-        world.addObject(connHIL);
+        // Create common MAVLink connection, shared by all vehicles
         MAVLinkConnection connCommon = new MAVLinkConnection(world);
         // Don't spam ground station with HIL messages
-        connCommon.addSkipMessage(schema.getMessageDefinition("HIL_CONTROLS").id);
-        connCommon.addSkipMessage(schema.getMessageDefinition("HIL_SENSOR").id);
-        connCommon.addSkipMessage(schema.getMessageDefinition("HIL_GPS").id);
+        connCommon.addSkipMessage(HilControls.ID);
+        connCommon.addSkipMessage(HilSensor.ID);
+        connCommon.addSkipMessage(HilGps.ID);
         world.addObject(connCommon);
 
-        // Create ports
-        MAVLinkPort autopilotMavLinkPort;
-        if (USE_SERIAL_PORT) {
-            //Serial port: connection to autopilot over serial.
-            SerialMAVLinkPort port = new SerialMAVLinkPort(schema);
-            port.setup(serialPath, serialBaudRate, 8, 1, 0);
-            autopilotMavLinkPort = port;
-        } else {
-            UDPMavLinkPort port = new UDPMavLinkPort(schema);
-            //port.setDebug(true);
-            port.setup(0, autopilotIpAddress, autopilotPort); // default source port 0 for autopilot, which is a client of JMAVSim
-            // monitor certain mavlink messages.
-            if (monitorMessage)  port.setMonitorMessageID(monitorMessageIds);
-            autopilotMavLinkPort = port;
-        }
+        // All ports are read and written in I/O thread
+        ioThread = new MAVLinkIOThread();
 
-        // allow HIL and GCS to talk to this port
-        connHIL.addNode(autopilotMavLinkPort);
-        connCommon.addNode(autopilotMavLinkPort);
         // UDP port: connection to ground station
         UDPMavLinkPort udpGCMavLinkPort = new UDPMavLinkPort(schema);
+        udpGCMavLinkPort.setIOThread(ioThread);
         //udpGCMavLinkPort.setDebug(true);
         if (COMMUNICATE_WITH_QGC) {
             udpGCMavLinkPort.setup(qgcBindPort, qgcIpAddress, qgcPeerPort);
@@ -108,6 +126,9 @@ public class Simulator implements Runnable {
 
         // Create environment
         SimpleEnvironment simpleEnvironment = new SimpleEnvironment(world);
+        if (noiseSeed != null) {
+            simpleEnvironment.setNoiseSeed(noiseSeed);
+        }
 
         // Mag vector in earth field, loosely based on the earth field in Zurich,
         // but without declination. The declination will be added below based on
@@ -128,31 +149,68 @@ public class Simulator implements Runnable {
         magDecl.transform(magField);
         simpleEnvironment.setMagField(magField);
 
-        // Create vehicle with sensors
-        vehicle = buildMulticopter();
+        // Create vehicles, each one with own autopilot port, HIL connection and HIL system.
+        // Vehicles are independent from each other and updated in parallel.
+        for (int i = 0; i < vehiclesNum; i++) {
+            // SysId should be the same as autopilot, ComponentId should be different!
+            int sysId = i + 1;
+
+            // Create MAVLink HIL connection
+            MAVLinkConnection connHIL = new MAVLinkConnection(world);
+
+            // Create autopilot port
+            MAVLinkPort autopilotMavLinkPort = buildAutopilotPort(schema, i);
+            autopilotPorts.add(autopilotMavLinkPort);
+
+            // allow HIL and GCS to talk to this port
+            connHIL.addNode(autopilotMavLinkPort);
+            connCommon.addNode(autopilotMavLinkPort);
+
+            // Create vehicle with sensors
+            AbstractMulticopter v = buildMulticopter(i);
+
+            // Create MAVLink HIL system
+            MAVLinkHILSystem hilSystem = new MAVLinkHILSystem(schema, sysId, 51, v);
+            connHIL.addNode(hilSystem);
+            if (lockstepClock != null) {
+                lockstepClock.addParticipant(sysId);
+                // Autopilot answers HIL_SENSOR with controls, so lockstep needs IMU output on every step
+                hilSystem.getSensorScheduler().setRate(SensorScheduler.IMU, 1000.0 / lockstepClock.getStep(), 0);
+            }
 
-        // Create MAVLink HIL system
-        // SysId should be the same as autopilot, ComponentId should be different!
-        MAVLinkHILSystem hilSystem = new MAVLinkHILSystem(schema, 1, 51, vehicle);
-        connHIL.addNode(hilSystem);
-        world.addObject(vehicle);
+            List<WorldObject> group = new ArrayList<WorldObject>();
+            group.add(connHIL);
+            group.add(v);
+            if (i == 0) {
+                vehicle = v;
+                // Put camera on vehicle with gimbal
+                gimbal = buildGimbal();
+                group.add(gimbal);
+            }
+            if (recordPath != null) {
+                // Record after vehicle update, vehicle N > 0 records to <path>.N
+                group.add(new FlightRecorder(world, v, hilSystem, i == 0 ? recordPath : recordPath + "." + i));
+            }
+            world.addObjectGroup(group);
+        }
 
         // Create 3D visualizer
-        visualizer = new Visualizer3D(world);
-
-        setFPV();
-
-        // Put camera on vehicle with gimbal
-        gimbal = buildGimbal();
-        world.addObject(gimbal);
+        if (!HEADLESS) {
+            visualizer = new Visualizer3D(world);
+            visualizer.setMaxFPS(maxFPS);
+            setFPV();
+        }
 
         // Open ports
-        autopilotMavLinkPort.open();
-
-        if (autopilotMavLinkPort instanceof SerialMAVLinkPort) {
-            // Special handling for PX4: Start MAVLink instance
-            SerialMAVLinkPort port = (SerialMAVLinkPort) autopilotMavLinkPort;
-            port.sendRaw("\nsh /etc/init.d/rc.usb\n".getBytes());
+        ioThread.start();
+        for (MAVLinkPort autopilotMavLinkPort : autopilotPorts) {
+            autopilotMavLinkPort.open();
+
+            if (autopilotMavLinkPort instanceof SerialMAVLinkPort) {
+                // Special handling for PX4: Start MAVLink instance
+                SerialMAVLinkPort port = (SerialMAVLinkPort) autopilotMavLinkPort;
+                port.sendRaw("\nsh /etc/init.d/rc.usb\n".getBytes());
+            }
         }
 
         if (COMMUNICATE_WITH_QGC) {
@@ -185,21 +243,61 @@ public class Simulator implements Runnable {
             }
         };
 
-        executor.scheduleAtFixedRate(keyboardWatcher, 0, 1, TimeUnit.MILLISECONDS);
-        executor.scheduleAtFixedRate(this, 0, sleepInterval, TimeUnit.MILLISECONDS);
-
-        while(!shutdown) Thread.sleep(1000);
+        if (visualizer != null) {
+            executor.scheduleAtFixedRate(keyboardWatcher, 0, 1, TimeUnit.MILLISECONDS);
+        }
+        if (lockstepClock != null) {
+            runLockstep();
+        } else {
+            // Keep simulation step the same when running faster than real time
+            long interval = (long) (sleepInterval * 1000 / speedFactor);
+            executor.scheduleAtFixedRate(this, 0, Math.max(interval, 1), TimeUnit.MICROSECONDS);
+            while(!shutdown) Thread.sleep(1000);
+        }
 
         // Close ports
-        autopilotMavLinkPort.close();
+        ioThread.stop();
+        for (MAVLinkPort autopilotMavLinkPort : autopilotPorts) {
+            autopilotMavLinkPort.close();
+        }
         udpGCMavLinkPort.close();
     }
 
-    private AbstractMulticopter buildMulticopter() throws IOException {
+    private MAVLinkPort buildAutopilotPort(MAVLinkSchema schema, int index) throws IOException {
+        if (USE_SERIAL_PORT) {
+            //Serial port: connection to autopilot over serial.
+            SerialMAVLinkPort port = new SerialMAVLinkPort(schema);
+            port.setup(serialPath, serialBaudRate, 8, 1, 0);
+            port.setIOThread(ioThread);
+            return port;
+        } else if (USE_SHARED_MEMORY) {
+            // Shared memory: autopilot on the same host, each next autopilot instance uses next file
+            SharedMemoryMAVLinkPort port = new SharedMemoryMAVLinkPort(schema);
+            port.setup(index == 0 ? sharedMemoryPath : sharedMemoryPath + "." + index,
+                    SharedMemoryMAVLinkPort.DEFAULT_RING_SIZE, false);
+            return port;
+        } else {
+            UDPMavLinkPort port = new UDPMavLinkPort(schema);
+            //port.setDebug(true);
+            // default source port 0 for autopilot, which is a client of JMAVSim
+            // each next autopilot instance uses next port
+            port.setup(0, autopilotIpAddress, autopilotPort + index);
+            port.setIOThread(ioThread);
+            // monitor certain mavlink messages.
+            if (monitorMessage)  port.setMonitorMessageID(monitorMessageIds);
+            return port;
+        }
+    }
+
+    private AbstractMulticopter buildMulticopter(int index) throws IOException {
         Vector3d gc = new Vector3d(0.0, 0.0, 0.0);  // gravity center
         AbstractMulticopter vehicle = new Quadcopter(world, "models/3dr_arducopter_quad_x.obj", "x", 0.33 / 2, 4.0,
                 0.05, 0.005, gc);
+        // Place vehicles on grid
+        vehicle.getPosition().x = (index / VEHICLES_IN_ROW) * VEHICLE_SPACING;
+        vehicle.getPosition().y = (index % VEHICLES_IN_ROW) * VEHICLE_SPACING;
         vehicle.setMass(0.8);
+        vehicle.setPhysicsStep(1.0 / physicsRate);
         Matrix3d I = new Matrix3d();
         // Moments of inertia
         I.m00 = 0.005;  // X
@@ -207,8 +305,11 @@ public class Simulator implements Runnable {
         I.m22 = 0.009;  // Z
         vehicle.setMomentOfInertia(I);
         SimpleSensors sensors = new SimpleSensors();
+        if (noiseSeed != null) {
+            sensors.setNoiseSeed(noiseSeed + index + 1);
+        }
         sensors.setGPSDelay(200);
-        sensors.setGPSStartTime(System.currentTimeMillis() + 1000);
+        sensors.setGPSStartTime(world.getClock().getTime() + 1000);
         vehicle.setSensors(sensors);
         vehicle.setDragMove(0.02);
         //v.setDragRotate(0.1);
@@ -225,17 +326,26 @@ public class Simulator implements Runnable {
     }
 
     private void setFPV() {
+        if (visualizer == null) {
+            return;
+        }
         // Put camera on vehicle (FPV)
         visualizer.setViewerPositionObject(vehicle);
         visualizer.setViewerPositionOffset(new Vector3d(-0.6f, 0.0f, -0.3f));   // Offset from vehicle center
     }
 
     private void setGimbal() {
+        if (visualizer == null) {
+            return;
+        }
         visualizer.setViewerPositionOffset(new Vector3d(0.0f, 0.0f, 0.0f));
         visualizer.setViewerPositionObject(gimbal);
     }
 
     private void setStaticCamera() {
+        if (visualizer == null) {
+            return;
+        }
         // Put camera on static point and point to vehicle
         visualizer.setViewerPosition(new Vector3d(-5.0, 0.0, -1.7));
         visualizer.setViewerTargetObject(vehicle);
@@ -244,20 +354,65 @@ public class Simulator implements Runnable {
     public void run() {
         try {
             //keyboardWatcher.run();
-            long t = System.currentTimeMillis();
-            world.update(t);
+            world.update();
         }
         catch (Exception e) {
             executor.shutdown();
         }
     }
 
+    /**
+     * Lockstep main loop. World is updated with fixed time step, then autopilot ports are polled until all autopilots
+     * answer with HIL_CONTROLS, only after this the clock is advanced.
+     * Ports are polled without sleeping for a short time first, autopilot on the same host usually answers within it.
+     * Before autopilots engage lockstep the clock advances with real time pace.
+     */
+    private void runLockstep() throws InterruptedException {
+        while (!shutdown) {
+            world.update();
+            if (lockstepClock.isEngaged()) {
+                long spinStart = System.nanoTime();
+                while (!shutdown && !lockstepClock.isStepAcknowledged()) {
+                    long inputCount = ioThread.getInputCount();
+                    synchronized (world) {
+                        for (MAVLinkPort autopilotPort : autopilotPorts) {
+                            autopilotPort.update(lockstepClock.getTime());
+                        }
+                    }
+                    if (!lockstepClock.isStepAcknowledged()) {
+                        if (System.nanoTime() - spinStart < LOCKSTEP_SPIN_TIME) {
+                            Thread.yield();
+                        } else {
+                            // Sleep until I/O thread receives something, shared memory ports are not signalled
+                            ioThread.awaitInput(inputCount, USE_SHARED_MEMORY ? 1 : LOCKSTEP_INPUT_TIMEOUT);
+                        }
+                    }
+                }
+            } else {
+                TimeUnit.MICROSECONDS.sleep((long) (lockstepClock.getStep() * 1000 / speedFactor));
+            }
+            lockstepClock.advance();
+        }
+    }
+
     public final static String PRINT_INDICATION_STRING = "-m <comma-separated list of mavlink message IDs to monitor. If none are listed, all messages will be monitored.>";
     public final static String UDP_STRING = "-udp <autopilot ip address>:<autopilot port>";
     public final static String QGC_STRING = "-qgc <qgc ip address>:<qgc peer port> <qgc bind port>";
     public final static String SERIAL_STRING = "-serial <path> <baudRate>";
+    public final static String SHARED_MEMORY_STRING = "-shm <path>";
+    public final static String LOCKSTEP_STRING = "-lockstep";
+    public final static String START_TIME_STRING = "--start-time <initial lockstep time in ms>";
+    public final static String HEADLESS_STRING = "--headless";
+    public final static String SPEED_STRING = "--speed <time-scale factor>";
+    public final static String PHYSICS_RATE_STRING = "--physics-rate <physics integration rate in Hz>";
+    public final static String FPS_STRING = "--fps <max visualizer frame rate, 0 for unlimited>";
+    public final static String VEHICLES_STRING = "--vehicles <number of vehicles>";
+    public final static String SEED_STRING = "--seed <noise seed>";
+    public final static String RECORD_STRING = "--record <flight data file>";
     public final static String USAGE_STRING = "java -cp lib/*:out/production/jmavsim.jar me.drton.jmavsim.Simulator " +
-            "[" + UDP_STRING + " | " + SERIAL_STRING + "] "+ QGC_STRING + " " + PRINT_INDICATION_STRING;
+            "[" + UDP_STRING + " | " + SERIAL_STRING + " | " + SHARED_MEMORY_STRING + "] "+ QGC_STRING + " " + PRINT_INDICATION_STRING + " " +
+            LOCKSTEP_STRING + " " + START_TIME_STRING + " " + HEADLESS_STRING + " " + SPEED_STRING + " " + PHYSICS_RATE_STRING + " " + FPS_STRING + " " +
+            VEHICLES_STRING + " " + SEED_STRING + " " + RECORD_STRING;
 
     public static void main(String[] args)
             throws InterruptedException, IOException, ParserConfigurationException, SAXException {
@@ -266,7 +421,7 @@ public class Simulator implements Runnable {
         if (args.length == 0) {
             USE_SERIAL_PORT = false;
         }
-        if (args.length > 8) {
+        if (args.length > 26) {
             System.err.println("Incorrect number of arguments. \n Usage: " + USAGE_STRING);
             return;
         }
@@ -305,6 +460,7 @@ public class Simulator implements Runnable {
             }
             else if (arg.equalsIgnoreCase("-udp")) {
                 USE_SERIAL_PORT = false;
+                USE_SHARED_MEMORY = false;
                 if (i == args.length) {
                     // only arg is -udp, so use default values.
                     break;
@@ -335,6 +491,7 @@ public class Simulator implements Runnable {
                 }
             } else if (arg.equals("-serial")) {
                 USE_SERIAL_PORT = true;
+                USE_SHARED_MEMORY = false;
                 if (i == args.length) {
                     // only arg is -serial, so use default values
                     break;
@@ -351,6 +508,114 @@ public class Simulator implements Runnable {
                     System.err.println("-serial needs two arguments. Expected: " + SERIAL_STRING + ", got: " + Arrays.toString(args));
                     return;
                 }
+            } else if (arg.equals("-shm")) {
+                if (i < args.length) {
+                    USE_SERIAL_PORT = false;
+                    USE_SHARED_MEMORY = true;
+                    sharedMemoryPath = args[i++];
+                } else {
+                    System.err.println("-shm needs an argument: " + SHARED_MEMORY_STRING);
+                    return;
+                }
+            } else if (arg.equals("-lockstep")) {
+                LOCKSTEP = true;
+            } else if (arg.equalsIgnoreCase("--start-time")) {
+                if (i < args.length) {
+                    try {
+                        startTime = Long.parseLong(args[i++]);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Expected: " + START_TIME_STRING + ", got: " + e.toString());
+                        return;
+                    }
+                    if (startTime < 0) {
+                        System.err.println("Start time must not be negative, got: " + startTime);
+                        return;
+                    }
+                } else {
+                    System.err.println("--start-time needs an argument: " + START_TIME_STRING);
+                    return;
+                }
+            } else if (arg.equalsIgnoreCase("--headless")) {
+                HEADLESS = true;
+            } else if (arg.equalsIgnoreCase("--speed")) {
+                if (i < args.length) {
+                    try {
+                        speedFactor = Double.parseDouble(args[i++]);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Expected: " + SPEED_STRING + ", got: " + e.toString());
+                        return;
+                    }
+                    if (speedFactor <= 0.0) {
+                        System.err.println("Time-scale factor must be positive, got: " + speedFactor);
+                        return;
+                    }
+                } else {
+                    System.err.println("--speed needs an argument: " + SPEED_STRING);
+                    return;
+                }
+            } else if (arg.equalsIgnoreCase("--physics-rate")) {
+                if (i < args.length) {
+                    try {
+                        physicsRate = Double.parseDouble(args[i++]);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Expected: " + PHYSICS_RATE_STRING + ", got: " + e.toString());
+                        return;
+                    }
+                    if (physicsRate <= 0.0) {
+                        System.err.println("Physics rate must be positive, got: " + physicsRate);
+                        return;
+                    }
+                } else {
+                    System.err.println("--physics-rate needs an argument: " + PHYSICS_RATE_STRING);
+                    return;
+                }
+            } else if (arg.equalsIgnoreCase("--fps")) {
+                if (i < args.length) {
+                    try {
+                        maxFPS = Double.parseDouble(args[i++]);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Expected: " + FPS_STRING + ", got: " + e.toString());
+                        return;
+                    }
+                } else {
+                    System.err.println("--fps needs an argument: " + FPS_STRING);
+                    return;
+                }
+            } else if (arg.equalsIgnoreCase("--vehicles")) {
+                if (i < args.length) {
+                    try {
+                        vehiclesNum = Integer.parseInt(args[i++]);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Expected: " + VEHICLES_STRING + ", got: " + e.toString());
+                        return;
+                    }
+                    if (vehiclesNum < 1) {
+                        System.err.println("Number of vehicles must be positive, got: " + vehiclesNum);
+                        return;
+                    }
+                } else {
+                    System.err.println("--vehicles needs an argument: " + VEHICLES_STRING);
+                    return;
+                }
+            } else if (arg.equalsIgnoreCase("--seed")) {
+                if (i < args.length) {
+                    try {
+                        noiseSeed = Long.parseLong(args[i++]);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Expected: " + SEED_STRING + ", got: " + e.toString());
+                        return;
+                    }
+                } else {
+                    System.err.println("--seed needs an argument: " + SEED_STRING);
+                    return;
+                }
+            } else if (arg.equalsIgnoreCase("--record")) {
+                if (i < args.length) {
+                    recordPath = args[i++];
+                } else {
+                    System.err.println("--record needs an argument: " + RECORD_STRING);
+                    return;
+                }
             } else if (arg.equals("-qgc")) {
                 COMMUNICATE_WITH_QGC = true;
                 // if (i < args.length) {
@@ -398,6 +663,10 @@ public class Simulator implements Runnable {
         if (i != args.length) {
             System.err.println("Usage: " + USAGE_STRING);
             return;
+        }
+        if (USE_SERIAL_PORT && vehiclesNum > 1) {
+            System.err.println("Multiple vehicles are supported only with UDP or shared memory autopilot connection");
+            return;
         } else { System.out.println("Success!"); }
 
         new Simulator();
@@ -406,6 +675,22 @@ public class Simulator implements Runnable {
     private static void handleHelpFlag() {
         System.out.println("Usage: " + USAGE_STRING);
         System.out.println("\n Note: if <qgc <port> is set to -1, JMavSim won't generate Mavlink messages for GroundControl.");
+        System.out.println(" Note: " + LOCKSTEP_STRING + " advances simulation time only when autopilot answered " +
+                "previous step with HIL_CONTROLS, " + START_TIME_STRING + " sets time of the first step, default is 0.");
+        System.out.println(" Note: " + HEADLESS_STRING + " runs without 3D visualizer, " + SPEED_STRING +
+                " runs simulation N times faster than real time.");
+        System.out.println(" Note: " + PHYSICS_RATE_STRING + " sets fixed physics step, default is " +
+                DEFAULT_PHYSICS_RATE + " Hz, sensors and MAVLink messages are sent at their own rates.");
+        System.out.println(" Note: " + FPS_STRING + " limits rendering, default is " +
+                Visualizer3D.DEFAULT_MAX_FPS + ", so visualizer doesn't take CPU time from simulation.");
+        System.out.println(" Note: " + VEHICLES_STRING + " simulates multiple vehicles, vehicle N connects to " +
+                "autopilot port + N and uses system ID N + 1.");
+        System.out.println(" Note: " + SEED_STRING + " makes sensor noise and wind gusts reproducible, " +
+                "each vehicle uses own generator.");
+        System.out.println(" Note: " + SHARED_MEMORY_STRING + " connects to autopilot on the same host over " +
+                "memory-mapped file (e.g. in /dev/shm), vehicle N > 0 uses <path>.N.");
+        System.out.println(" Note: " + RECORD_STRING + " records vehicle state, controls and sensors on every " +
+                "update to PX4 log file, vehicle N > 0 records to <file>.N.");
     }
 
 }
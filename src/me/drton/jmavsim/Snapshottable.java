@@ -0,0 +1,12 @@
+package me.drton.jmavsim;
+
+/**
+ * Object with state that can be saved to simulation snapshot and restored from it, see World.saveSnapshot().
+ * Values must be restored in the same order as saved. Implementations should not allocate memory if state layout
+ * doesn't change, so snapshot can be taken and restored many times quickly.
+ */
+public interface Snapshottable {
+    void saveState(SimulationSnapshot snapshot);
+
+    void restoreState(SimulationSnapshot snapshot);
+}
@@ -1,33 +1,38 @@
 package me.drton.jmavsim;
 
 import com.sun.j3d.utils.geometry.Sphere;
-import me.drton.jmavlib.geo.GlobalPositionProjector;
-import me.drton.jmavlib.geo.LatLonAlt;
 
-import javax.vecmath.Vector3d;
+import javax.media.j3d.TransformGroup;
 import java.io.FileNotFoundException;
 
 /**
  * User: ton Date: 01.02.14 Time: 22:12
  */
 public abstract class Target extends KinematicObject {
-    private GlobalPositionProjector gpsProjector = new GlobalPositionProjector();
+    private GNSSProjector gpsProjector = new GNSSProjector();
+    private GNSSReport gps = new GNSSReport();
+    private double size;
 
     public Target(World world, double size) throws FileNotFoundException {
         super(world);
+        this.size = size;
+        gpsProjector.init(world.getGlobalReference());
+    }
+
+    @Override
+    protected void createModel(TransformGroup transformGroup) {
         Sphere sphere = new Sphere((float) size);
         transformGroup.addChild(sphere);
-        gpsProjector.init(world.getGlobalReference());
     }
 
+    /**
+     * @return global position, valid until next call
+     */
     public GNSSReport getGlobalPosition() {
-        Vector3d pos = getPosition();
-        LatLonAlt latLonAlt = gpsProjector.reproject(new double[]{pos.x, pos.y, pos.z});
-        GNSSReport gps = new GNSSReport();
-        gps.position = latLonAlt;
+        gpsProjector.reproject(getPosition(), gps);
         gps.eph = 1.0;
         gps.epv = 1.0;
-        gps.velocity = getVelocity();
+        gps.velocity.set(getVelocity());
         return gps;
     }
 }
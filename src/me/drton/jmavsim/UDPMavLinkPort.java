@@ -16,11 +16,22 @@ import java.util.*;
 public class UDPMavLinkPort extends MAVLinkPort {
     private MAVLinkSchema schema;
     private DatagramChannel channel = null;
-    private ByteBuffer rxBuffer = ByteBuffer.allocate(8192);
     private SocketAddress bindPort = null;
     private SocketAddress peerPort;
     private MAVLinkStream stream;
+    private MAVLinkFrameReader frameReader;
     private boolean debug = false;
+    private final MAVLinkIOThread.Handler ioHandler = new MAVLinkIOThread.Handler() {
+        @Override
+        public boolean handleRead() throws IOException {
+            return readFrames(frameReader);
+        }
+
+        @Override
+        public void handleWrite() throws IOException {
+            writeFrames(channel);
+        }
+    };
 
     private boolean monitorMessage = false;
     private HashSet<Integer> monitorMessageIDs;
@@ -31,7 +42,6 @@ public class UDPMavLinkPort extends MAVLinkPort {
     public UDPMavLinkPort(MAVLinkSchema schema) {
         super(schema);
         this.schema = schema;
-        rxBuffer.flip();
     }
 
     public void setMonitorMessageID(HashSet<Integer> ids) {
@@ -114,11 +124,20 @@ public class UDPMavLinkPort extends MAVLinkPort {
         channel.socket().bind(bindPort);
         channel.configureBlocking(false);
         channel.connect(peerPort);
-        stream = new MAVLinkStream(schema, channel);
+        if (schema != null) {
+            stream = new MAVLinkStream(schema, channel);
+        }
+        frameReader = new MAVLinkFrameReader(channel);
+        if (ioThread != null) {
+            ioThread.register(channel, ioHandler);
+        }
     }
 
     @Override
     public void close() throws IOException {
+        if (ioThread != null) {
+            ioThread.unregister(ioHandler);
+        }
         if (channel != null) {
             channel.close();
         }
@@ -130,7 +149,7 @@ public class UDPMavLinkPort extends MAVLinkPort {
     }
 
     @Override
-    public void handleMessage(MAVLinkMessage msg) {
+    public synchronized void handleMessage(MAVLinkMessage msg) {
         if (debug) System.out.println("[handleMessage] msg.name: " + msg.getMsgName() + ", type: " + msg.getMsgType());
 
         try {
@@ -141,14 +160,41 @@ public class UDPMavLinkPort extends MAVLinkPort {
 
 
         if (isOpened()) {
+            if (ioThread != null) {
+                queueFrame(msg.encode());
+                return;
+            }
             try {
-                stream.write(msg);
+                if (stream != null) {
+                    stream.write(msg);
+                } else {
+                    channel.write(msg.encode());
+                }
             } catch (IOException ignored) {
                 // Silently ignore this exception, we likely just have nobody on this port yet/already
             }
         }
     }
 
+    @Override
+    public synchronized void handleFrame(int msgType, ByteBuffer frame) {
+        if (debug) System.out.println("[handleFrame] msg.type: " + msgType);
+
+        if (isOpened()) {
+            if (ioThread != null) {
+                queueFrame(frame);
+                return;
+            }
+            int position = frame.position();
+            try {
+                channel.write(frame);
+            } catch (IOException ignored) {
+                // Silently ignore this exception, we likely just have nobody on this port yet/already
+            }
+            frame.position(position);
+        }
+    }
+
     static int MONITOR_MESSAGE_RATE = 100; // rate at which to print message info
     static int TIME_PASSING = 10;         // change the print so it's visible to the user.
     static int time = 0;
@@ -187,19 +233,32 @@ public class UDPMavLinkPort extends MAVLinkPort {
 
     @Override
     public void update(long t) {
+        if (ioThread != null) {
+            ByteBuffer frame;
+            while ((frame = inputQueue.peek()) != null) {
+                receiveFrame(frame);
+                inputQueue.release();
+            }
+            return;
+        }
         while (isOpened()) {
             try {
-                MAVLinkMessage msg = stream.read();
-                if (msg == null) {
+                ByteBuffer frame = frameReader.read();
+                if (frame == null) {
                     break;
                 }
-                if (debug) System.out.println("[update] msg.name: " + msg.getMsgName() + ", type: " + msg.getMsgType());
-                IndicateReceivedMessage(msg.getMsgType());
-                sendMessage(msg);
+                receiveFrame(frame);
             } catch (IOException e) {
                 // Silently ignore this exception, we likely just have nobody on this port yet/already
                 return;
             }
         }
     }
+
+    private void receiveFrame(ByteBuffer frame) {
+        int msgType = MAVLinkFrame.getMsgType(frame);
+        if (debug) System.out.println("[update] msg.type: " + msgType);
+        IndicateReceivedMessage(msgType);
+        sendFrame(msgType, frame);
+    }
 }
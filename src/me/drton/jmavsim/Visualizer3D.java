@@ -9,11 +9,13 @@ import javax.swing.*;
 import javax.vecmath.*;
 import java.awt.*;
 import java.util.Enumeration;
+import java.util.List;
 
 /**
- * 3D Visualizer, works in own thread, synchronized with "world" thread.
+ * 3D Visualizer, works in own thread, reads object poses from snapshots published by "world" thread.
  */
 public class Visualizer3D extends JFrame {
+    public static final double DEFAULT_MAX_FPS = 30.0;
     private static Color3f white = new Color3f(1.0f, 1.0f, 1.0f);
     private final World world;
     private SimpleUniverse universe;
@@ -24,9 +26,17 @@ public class Visualizer3D extends JFrame {
     private TransformGroup viewerTransformGroup;
     private KinematicObject viewerTargetObject;
     private KinematicObject viewerPositionObject;
+    private final PoseBuffer poseBuffer;
+    // Preallocated temporaries used in render thread
+    private Vector3d objectPosition = new Vector3d();
+    private Matrix3d objectRotation = new Matrix3d();
+    private Vector3d viewerDistance = new Vector3d();
+    private Matrix3d viewerRotation = new Matrix3d();
+    private Matrix3d rotation = new Matrix3d();
 
     public Visualizer3D(World world) {
         this.world = world;
+        this.poseBuffer = world.getPoseBuffer();
 
         setSize(640, 480);
         setDefaultCloseOperation(EXIT_ON_CLOSE);
@@ -36,6 +46,7 @@ public class Visualizer3D extends JFrame {
 
         universe = new SimpleUniverse(canvas);
         universe.getViewer().getView().setBackClipDistance(100000.0);
+        setMaxFPS(DEFAULT_MAX_FPS);
         viewerTransformGroup = universe.getViewingPlatform().getViewPlatformTransform();
         createEnvironment();
         for (WorldObject object : world.getObjects()) {
@@ -58,6 +69,15 @@ public class Visualizer3D extends JFrame {
         viewerTransform.setRotation(mat);
     }
 
+    /**
+     * Limit rendering rate, so visualizer doesn't take CPU time from simulation.
+     *
+     * @param fps max frames per second, 0 for unlimited
+     */
+    public void setMaxFPS(double fps) {
+        universe.getViewer().getView().setMinimumFrameCycleTime(fps > 0.0 ? Math.round(1000.0 / fps) : 0);
+    }
+
     /**
      * Target object to point camera, has effect only if viewerPositionObject is not set.
      *
@@ -129,7 +149,11 @@ public class Visualizer3D extends JFrame {
         polygon1.setTextureCoordinate(0, 1, new TexCoord2f(10.0f, 0.0f));
         polygon1.setTextureCoordinate(0, 2, new TexCoord2f(10.0f, 10.0f));
         polygon1.setTextureCoordinate(0, 3, new TexCoord2f(0.0f, 10.0f));
-        Texture texGround = new TextureLoader("environment/grass2.jpg", null).getTexture();
+        // Mipmaps: distant ground is sampled from smaller texture levels
+        Texture texGround = new TextureLoader("environment/grass2.jpg", TextureLoader.GENERATE_MIPMAP, null)
+                .getTexture();
+        texGround.setMinFilter(Texture.MULTI_LEVEL_LINEAR);
+        texGround.setMagFilter(Texture.BASE_LEVEL_LINEAR);
         Appearance apGround = new Appearance();
         apGround.setTexture(texGround);
         Shape3D ground = new Shape3D(polygon1, apGround);
@@ -156,57 +180,65 @@ public class Visualizer3D extends JFrame {
     }
 
     private void updateVisualizer() {
-        synchronized (world) { // Synchronize with "world" thread
-            // Update branch groups of all kinematic objects
-            for (WorldObject object : world.getObjects()) {
-                if (object instanceof KinematicObject) {
-                    BranchGroup bg = ((KinematicObject) object).getBranchGroup();
-                    if (bg != null) {
-                        ((KinematicObject) object).updateBranchGroup();
-                    }
-                }
+        // Poses are taken from the latest snapshot published by "world" thread, so rendering never blocks simulation
+        PoseBuffer.Snapshot snapshot = poseBuffer.getLatest();
+        List<KinematicObject> objects = snapshot.getObjects();
+        int viewerPositionIndex = -1;
+        int viewerTargetIndex = -1;
+        // Update branch groups of all kinematic objects
+        for (int i = 0; i < objects.size(); i++) {
+            KinematicObject object = objects.get(i);
+            snapshot.getPosition(i, objectPosition);
+            snapshot.getRotation(i, objectRotation);
+            object.updateBranchGroup(objectPosition, objectRotation);
+            if (object == viewerPositionObject) {
+                viewerPositionIndex = i;
             }
+            if (object == viewerTargetObject) {
+                viewerTargetIndex = i;
+            }
+        }
 
-            // Update view platform
-            if (viewerPositionObject != null) {
-                // Camera on object
-                viewerPosition.set(viewerPositionOffset);
-                viewerPositionObject.getRotation().transform(viewerPosition);
-                viewerPosition.add(viewerPositionObject.getPosition());
-                viewerTransform.setTranslation(viewerPosition);
-
-                Matrix3d mat = new Matrix3d();
-                Matrix3d mat1 = new Matrix3d();
-                mat.set(viewerPositionObject.getRotation());
-                mat1.rotZ(Math.PI / 2);
-                mat.mul(mat1);
-                mat1.rotX(-Math.PI / 2);
-                mat.mul(mat1);
-                viewerTransform.setRotation(mat);
-            } else {
-                // Fixed camera
-                if (viewerTargetObject != null) {
-                    // Point camera to target
-                    Vector3d pos = viewerTargetObject.getPosition();
-                    Vector3d dist = new Vector3d();
-                    dist.sub(pos, viewerPosition);
-
-                    Matrix3d mat = new Matrix3d();
-                    Matrix3d mat1 = new Matrix3d();
-                    mat.rotZ(Math.PI);
-                    mat1.rotY(Math.PI / 2);
-                    mat.mul(mat1);
-                    mat1.rotZ(-Math.PI / 2);
-                    mat.mul(mat1);
-                    mat1.rotY(-Math.atan2(pos.y - viewerPosition.y, pos.x - viewerPosition.x));
-                    mat.mul(mat1);
-                    mat1.rotX(-Math.asin((pos.z - viewerPosition.z) / dist.length()));
-                    mat.mul(mat1);
-                    viewerTransform.setRotation(mat);
-                }
+        // Update view platform
+        if (viewerPositionObject != null) {
+            if (viewerPositionIndex < 0) {
+                return;
+            }
+            // Camera on object
+            snapshot.getPosition(viewerPositionIndex, objectPosition);
+            snapshot.getRotation(viewerPositionIndex, objectRotation);
+            viewerPosition.set(viewerPositionOffset);
+            objectRotation.transform(viewerPosition);
+            viewerPosition.add(objectPosition);
+            viewerTransform.setTranslation(viewerPosition);
+
+            viewerRotation.set(objectRotation);
+            rotation.rotZ(Math.PI / 2);
+            viewerRotation.mul(rotation);
+            rotation.rotX(-Math.PI / 2);
+            viewerRotation.mul(rotation);
+            viewerTransform.setRotation(viewerRotation);
+        } else {
+            // Fixed camera
+            if (viewerTargetIndex >= 0) {
+                // Point camera to target
+                Vector3d pos = objectPosition;
+                snapshot.getPosition(viewerTargetIndex, pos);
+                viewerDistance.sub(pos, viewerPosition);
+
+                viewerRotation.rotZ(Math.PI);
+                rotation.rotY(Math.PI / 2);
+                viewerRotation.mul(rotation);
+                rotation.rotZ(-Math.PI / 2);
+                viewerRotation.mul(rotation);
+                rotation.rotY(-Math.atan2(pos.y - viewerPosition.y, pos.x - viewerPosition.x));
+                viewerRotation.mul(rotation);
+                rotation.rotX(-Math.asin((pos.z - viewerPosition.z) / viewerDistance.length()));
+                viewerRotation.mul(rotation);
+                viewerTransform.setRotation(viewerRotation);
             }
-            viewerTransformGroup.setTransform(viewerTransform);
         }
+        viewerTransformGroup.setTransform(viewerTransform);
     }
 
     class UpdateBehavior extends Behavior {
@@ -3,37 +3,180 @@ package me.drton.jmavsim;
 import me.drton.jmavlib.geo.LatLonAlt;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * User: ton Date: 02.02.14 Time: 11:33
+ * <p/>
+ * World contains shared objects (environment, common connections), updated sequentially in order of adding, and
+ * optional object groups, e.g. vehicle with its own HIL connection. Groups must be independent from each other, they
+ * are updated in parallel after shared objects, update returns when all groups are updated.
  */
 public class World {
     private List<WorldObject> objects = new ArrayList<WorldObject>();
+    private List<WorldObject> objectsView = Collections.unmodifiableList(objects);
+    private List<WorldObject> sharedObjects = new ArrayList<WorldObject>();
+    private List<GroupUpdateTask> groupTasks = new ArrayList<GroupUpdateTask>();
+    private GroupsUpdateTask groupsTask = new GroupsUpdateTask();
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private ForkJoinPool pool = null;
     private Environment environment = null;
     private LatLonAlt globalReference = new LatLonAlt(0.0, 0.0, 0.0);
+    private SimulationClock clock = new RealTimeClock();
+    private volatile PoseBuffer poseBuffer = null;
+    private long lastTime = -1;
 
     public void addObject(WorldObject obj) {
         objects.add(obj);
+        sharedObjects.add(obj);
         if (obj instanceof Environment) {
             environment = (Environment) obj;
         }
     }
 
+    /**
+     * Add group of objects, updated sequentially in given order, but in parallel with other groups.
+     * Objects of the group must not modify objects outside of the group in update.
+     *
+     * @param group list of objects
+     */
+    public void addObjectGroup(List<? extends WorldObject> group) {
+        objects.addAll(group);
+        groupTasks.add(new GroupUpdateTask(new ArrayList<WorldObject>(group)));
+    }
+
+    /**
+     * Set max number of threads used to update object groups.
+     *
+     * @param parallelism number of threads, 1 to update groups sequentially
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Get all objects, including objects in groups.
+     *
+     * @return unmodifiable list of objects
+     */
     public List<WorldObject> getObjects() {
-        return objects;
+        return objectsView;
     }
 
     public Environment getEnvironment() {
         return environment;
     }
 
+    public void setClock(SimulationClock clock) {
+        this.clock = clock;
+    }
+
+    public SimulationClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Update all objects using current time of the world clock.
+     */
+    public void update() {
+        update(clock.getTime());
+    }
+
     public synchronized void update(long t) {
-        for (WorldObject obj : objects) {
-            obj.update(t);
+        for (int i = 0; i < sharedObjects.size(); i++) {
+            sharedObjects.get(i).update(t);
+        }
+        if (groupTasks.size() > 1 && parallelism > 1) {
+            if (pool == null) {
+                pool = new ForkJoinPool(parallelism);
+            }
+            for (GroupUpdateTask task : groupTasks) {
+                task.reinitialize();
+                task.time = t;
+            }
+            groupsTask.reinitialize();
+            pool.invoke(groupsTask);
+        } else {
+            for (int i = 0; i < groupTasks.size(); i++) {
+                groupTasks.get(i).update(t);
+            }
+        }
+        lastTime = t;
+        PoseBuffer poses = poseBuffer;
+        if (poses != null) {
+            poses.publish(this, t);
+        }
+    }
+
+    /**
+     * Save state of all objects to new snapshot.
+     */
+    public SimulationSnapshot createSnapshot() {
+        SimulationSnapshot snapshot = new SimulationSnapshot();
+        saveSnapshot(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Save state of all objects that support it (see Snapshottable) to snapshot, in order of adding. Snapshot may be
+     * reused, then saving doesn't allocate memory. Must not be called during update.
+     */
+    public synchronized void saveSnapshot(SimulationSnapshot snapshot) {
+        snapshot.startSave(lastTime >= 0 ? lastTime : clock.getTime());
+        for (int i = 0; i < objects.size(); i++) {
+            WorldObject obj = objects.get(i);
+            if (obj instanceof Snapshottable) {
+                ((Snapshottable) obj).saveState(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Restore state of all objects from snapshot saved from this world, so simulation continues from the snapshot
+     * time, e.g. to branch several scenarios from the same state. Lockstep clock is set to the snapshot time, real time
+     * clock can't be rewound, so use lockstep clock or update(t) with own time.
+     */
+    public synchronized void restoreSnapshot(SimulationSnapshot snapshot) {
+        snapshot.startRestore();
+        for (int i = 0; i < objects.size(); i++) {
+            WorldObject obj = objects.get(i);
+            if (obj instanceof Snapshottable) {
+                ((Snapshottable) obj).restoreState(snapshot);
+            }
+        }
+        if (!snapshot.isRestored()) {
+            throw new IllegalStateException("Snapshot doesn't match objects, not all values restored");
+        }
+        lastTime = snapshot.getTime();
+        if (clock instanceof LockstepClock) {
+            ((LockstepClock) clock).setTime(snapshot.getTime());
+        }
+        PoseBuffer poses = poseBuffer;
+        if (poses != null) {
+            poses.publish(this, snapshot.getTime());
         }
     }
 
+    /**
+     * Get buffer of object poses for visualization, poses are published after each update once the buffer was
+     * requested.
+     */
+    public synchronized PoseBuffer getPoseBuffer() {
+        if (poseBuffer == null) {
+            poseBuffer = new PoseBuffer();
+            poseBuffer.publish(this, clock.getTime());
+        }
+        return poseBuffer;
+    }
+
     public void setGlobalReference(LatLonAlt globalReference) {
         this.globalReference = globalReference;
     }
@@ -41,4 +184,39 @@ public class World {
     public LatLonAlt getGlobalReference() {
         return globalReference;
     }
+
+    /**
+     * Updates one group of objects.
+     */
+    private static class GroupUpdateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<WorldObject> objects;
+        private long time;
+
+        GroupUpdateTask(List<WorldObject> objects) {
+            this.objects = objects;
+        }
+
+        void update(long t) {
+            for (int i = 0; i < objects.size(); i++) {
+                objects.get(i).update(t);
+            }
+        }
+
+        @Override
+        protected void compute() {
+            update(time);
+        }
+    }
+
+    /**
+     * Updates all groups in parallel and waits for completion of all of them.
+     */
+    private class GroupsUpdateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected void compute() {
+            ForkJoinTask.invokeAll(groupTasks);
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package me.drton.jmavsim.vehicle;
 
 import me.drton.jmavsim.Rotor;
+import me.drton.jmavsim.SimulationSnapshot;
 import me.drton.jmavsim.World;
 
 import javax.vecmath.Vector3d;
@@ -14,6 +15,15 @@ public abstract class AbstractMulticopter extends AbstractVehicle {
     private double dragMove = 0.0;
     private double dragRotate = 0.0;
     protected Rotor[] rotors;
+    // Preallocated temporary objects to avoid allocations in physics step
+    private Vector3d force = new Vector3d();
+    private Vector3d torque = new Vector3d();
+    private Vector3d airSpeed = new Vector3d();
+    private Vector3d airRotationRate = new Vector3d();
+    private Vector3d airFlowForce = new Vector3d();
+    private Vector3d airFlowTorque = new Vector3d();
+    private Vector3d rotorMoment = new Vector3d();
+    private Vector3d rotorThrust = new Vector3d();
 
     public AbstractMulticopter(World world, String modelName) throws FileNotFoundException {
         super(world, modelName);
@@ -38,6 +48,13 @@ public abstract class AbstractMulticopter extends AbstractVehicle {
      */
     protected abstract Vector3d getRotorPosition(int i);
 
+    /**
+     * Get rotors, e.g. to record their state.
+     */
+    public Rotor[] getRotors() {
+        return rotors;
+    }
+
     public void setDragMove(double dragMove) {
         this.dragMove = dragMove;
     }
@@ -47,61 +64,87 @@ public abstract class AbstractMulticopter extends AbstractVehicle {
     }
 
     @Override
-    public void update(long t) {
+    public void saveState(SimulationSnapshot snapshot) {
+        super.saveState(snapshot);
         for (Rotor rotor : rotors) {
-            rotor.update(t);
+            rotor.saveState(snapshot);
         }
+    }
+
+    @Override
+    public void restoreState(SimulationSnapshot snapshot) {
+        super.restoreState(snapshot);
+        for (Rotor rotor : rotors) {
+            rotor.restoreState(snapshot);
+        }
+    }
+
+    @Override
+    public void update(long t) {
         super.update(t);
         for (int i = 0; i < rotors.length; i++) {
-            double c = control.size() > i ? control.get(i) : 0.0;
-            rotors[i].setControl(c);
+            rotors[i].setControl(getControl(i));
+        }
+    }
+
+    @Override
+    protected void beforeStep(double dt) {
+        for (Rotor rotor : rotors) {
+            rotor.update(dt);
         }
     }
 
     @Override
     protected Vector3d getForce() {
         int n = getRotorsNum();
-        Vector3d f = new Vector3d();
+        force.set(0.0, 0.0, 0.0);
         for (int i = 0; i < n; i++) {
-            f.z -= rotors[i].getThrust();
+            force.z -= rotors[i].getThrust();
         }
-        rotation.transform(f);
-        Vector3d airSpeed = new Vector3d(getVelocity());
-        airSpeed.scale(-1.0);
+        getRotation().transform(force);
+        airSpeed.negate(getVelocity());
         airSpeed.add(getWorld().getEnvironment().getWind(position));
-        f.add(getAirFlowForce(airSpeed));
-        return f;
+        force.add(getAirFlowForce(airSpeed));
+        return force;
     }
 
     @Override
     protected Vector3d getTorque() {
         int n = getRotorsNum();
-        Vector3d torque = new Vector3d();
-        Vector3d m = new Vector3d();
-        Vector3d t = new Vector3d();
+        torque.set(0.0, 0.0, 0.0);
+        rotorThrust.set(0.0, 0.0, 0.0);
         for (int i = 0; i < n; i++) {
             // Roll / pitch
-            t.z = -rotors[i].getThrust();
-            m.cross(getRotorPosition(i), t);
+            rotorThrust.z = -rotors[i].getThrust();
+            rotorMoment.cross(getRotorPosition(i), rotorThrust);
             // Yaw
-            m.z -= rotors[i].getTorque();
-            torque.add(m);
+            rotorMoment.z -= rotors[i].getTorque();
+            torque.add(rotorMoment);
         }
-        Vector3d airRotationRate = new Vector3d(rotationRate);
-        airRotationRate.scale(-1.0);
+        airRotationRate.negate(rotationRate);
         torque.add(getAirFlowTorque(airRotationRate));
         return torque;
     }
 
+    /**
+     * Get aerodynamic drag force.
+     *
+     * @param airSpeed air speed relative to vehicle
+     * @return force [N], returned vector is reused on next call
+     */
     protected Vector3d getAirFlowForce(Vector3d airSpeed) {
-        Vector3d f = new Vector3d(airSpeed);
-        f.scale(f.length() * dragMove);
-        return f;
+        airFlowForce.scale(airSpeed.length() * dragMove, airSpeed);
+        return airFlowForce;
     }
 
+    /**
+     * Get aerodynamic drag torque.
+     *
+     * @param airRotationRate rotation rate of air relative to vehicle
+     * @return torque [N * m], returned vector is reused on next call
+     */
     protected Vector3d getAirFlowTorque(Vector3d airRotationRate) {
-        Vector3d f = new Vector3d(airRotationRate);
-        f.scale(f.length() * dragRotate);
-        return f;
+        airFlowTorque.scale(airRotationRate.length() * dragRotate, airRotationRate);
+        return airFlowTorque;
     }
 }
@@ -2,21 +2,24 @@ package me.drton.jmavsim.vehicle;
 
 import me.drton.jmavsim.DynamicObject;
 import me.drton.jmavsim.Sensors;
+import me.drton.jmavsim.SimulationSnapshot;
+import me.drton.jmavsim.Snapshottable;
 import me.drton.jmavsim.World;
 
 import javax.vecmath.Vector3d;
 import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
  * Abstract vehicle class, should be used for creating vehicle of any type.
- * Child class should use member 'control' as control input for actuators.
+ * Child class should use members 'control' and 'controlSize' as control input for actuators.
+ * Control values are copied to preallocated array, so setting controls on every HIL_CONTROLS doesn't allocate memory.
  * 'update()' method of AbstractVehicle must be called from child class implementation if overridden.
  */
 public abstract class AbstractVehicle extends DynamicObject {
-    protected List<Double> control = Collections.emptyList();
+    public static final int MAX_CONTROLS = 16;
+    protected final double[] control = new double[MAX_CONTROLS];
+    protected int controlSize = 0;
     private Sensors sensors = null;
 
     public AbstractVehicle(World world, String modelName) throws FileNotFoundException {
@@ -25,12 +28,42 @@ public abstract class AbstractVehicle extends DynamicObject {
         position.set(0.0, 0.0, world.getEnvironment().getGroundLevel(new Vector3d(0.0, 0.0, 0.0)));
     }
 
+    /**
+     * Set controls, values after MAX_CONTROLS are ignored.
+     *
+     * @param control control values, empty list if no controls
+     */
     public void setControl(List<Double> control) {
-        this.control = new ArrayList<Double>(control);
+        controlSize = Math.min(control.size(), MAX_CONTROLS);
+        for (int i = 0; i < controlSize; i++) {
+            this.control[i] = control.get(i);
+        }
+    }
+
+    /**
+     * Set controls, values after MAX_CONTROLS are ignored.
+     *
+     * @param control control values
+     * @param size    number of values, 0 if no controls
+     */
+    public void setControl(double[] control, int size) {
+        controlSize = Math.min(size, MAX_CONTROLS);
+        System.arraycopy(control, 0, this.control, 0, controlSize);
     }
 
-    public List<Double> getControl() {
-        return control;
+    /**
+     * @return number of controls, 0 if no controls set
+     */
+    public int getControlSize() {
+        return controlSize;
+    }
+
+    /**
+     * @param i control channel
+     * @return control value, 0 if channel is not set
+     */
+    public double getControl(int i) {
+        return i < controlSize ? control[i] : 0.0;
     }
 
     /**
@@ -47,6 +80,26 @@ public abstract class AbstractVehicle extends DynamicObject {
         return sensors;
     }
 
+    @Override
+    public void saveState(SimulationSnapshot snapshot) {
+        super.saveState(snapshot);
+        snapshot.putLong(controlSize);
+        snapshot.putDoubles(control, 0, controlSize);
+        if (sensors instanceof Snapshottable) {
+            ((Snapshottable) sensors).saveState(snapshot);
+        }
+    }
+
+    @Override
+    public void restoreState(SimulationSnapshot snapshot) {
+        super.restoreState(snapshot);
+        controlSize = (int) snapshot.getLong();
+        snapshot.getDoubles(control, 0, controlSize);
+        if (sensors instanceof Snapshottable) {
+            ((Snapshottable) sensors).restoreState(snapshot);
+        }
+    }
+
     @Override
     public void update(long t) {
         super.update(t);
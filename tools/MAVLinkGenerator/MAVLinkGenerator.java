@@ -0,0 +1,409 @@
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates typed MAVLink message classes from message definitions XML.
+ * Each message gets class with primitive public fields and encode/decode methods working with fixed offsets,
+ * MAVLinkMessages class contains message tables indexed by message ID. Only MAVLink 1.0 wire format is supported.
+ * <p/>
+ * Usage: MAVLinkGenerator definitions.xml output_dir
+ */
+public class MAVLinkGenerator {
+    private static final String PACKAGE = "me.drton.jmavsim.mavlink";
+    private static final String BASE_CLASS = "me.drton.jmavsim.MAVLinkPayload";
+    private static final Set<String> JAVA_KEYWORDS = new HashSet<String>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "try", "void", "volatile", "while", "true", "false", "null"));
+
+    private static class Field {
+        String type;        // C type without array suffix
+        String name;
+        String javaName;
+        String description;
+        int arraySize;      // 0 for scalar fields
+        int offset;
+
+        int getSize() {
+            if (type.equals("char") || type.equals("int8_t") || type.equals("uint8_t")) {
+                return 1;
+            } else if (type.equals("int16_t") || type.equals("uint16_t")) {
+                return 2;
+            } else if (type.equals("int32_t") || type.equals("uint32_t") || type.equals("float")) {
+                return 4;
+            } else if (type.equals("int64_t") || type.equals("uint64_t") || type.equals("double")) {
+                return 8;
+            }
+            throw new IllegalArgumentException("Unsupported type: " + type);
+        }
+
+        String getJavaType() {
+            if (type.equals("char") || type.equals("int8_t")) {
+                return "byte";
+            } else if (type.equals("uint32_t") || type.equals("int64_t") || type.equals("uint64_t")) {
+                return "long";
+            } else if (type.equals("float") || type.equals("double")) {
+                return type;
+            }
+            return "int";
+        }
+
+        String getReadExpression(String offset) {
+            if (type.equals("char") || type.equals("int8_t")) {
+                return "buffer.get(" + offset + ")";
+            } else if (type.equals("uint8_t")) {
+                return "buffer.get(" + offset + ") & 0xFF";
+            } else if (type.equals("int16_t")) {
+                return "buffer.getShort(" + offset + ")";
+            } else if (type.equals("uint16_t")) {
+                return "buffer.getShort(" + offset + ") & 0xFFFF";
+            } else if (type.equals("int32_t")) {
+                return "buffer.getInt(" + offset + ")";
+            } else if (type.equals("uint32_t")) {
+                return "buffer.getInt(" + offset + ") & 0xFFFFFFFFL";
+            } else if (type.equals("float")) {
+                return "buffer.getFloat(" + offset + ")";
+            } else if (type.equals("double")) {
+                return "buffer.getDouble(" + offset + ")";
+            }
+            return "buffer.getLong(" + offset + ")";
+        }
+
+        String getWriteStatement(String offset, String value) {
+            switch (getSize()) {
+                case 1:
+                    return type.equals("uint8_t") ? "buffer.put(" + offset + ", (byte) " + value + ");" :
+                            "buffer.put(" + offset + ", " + value + ");";
+                case 2:
+                    return "buffer.putShort(" + offset + ", (short) " + value + ");";
+                case 4:
+                    if (type.equals("float")) {
+                        return "buffer.putFloat(" + offset + ", " + value + ");";
+                    } else if (type.equals("uint32_t")) {
+                        // Only 4-byte integer stored in long
+                        return "buffer.putInt(" + offset + ", (int) " + value + ");";
+                    }
+                    return "buffer.putInt(" + offset + ", " + value + ");";
+                default:
+                    if (type.equals("double")) {
+                        return "buffer.putDouble(" + offset + ", " + value + ");";
+                    }
+                    return "buffer.putLong(" + offset + ", " + value + ");";
+            }
+        }
+    }
+
+    private static class Message {
+        int id;
+        String name;
+        String className;
+        String description;
+        List<Field> fields = new ArrayList<Field>();     // In wire order
+        int payloadLength;
+        int crcExtra;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: MAVLinkGenerator definitions.xml output_dir");
+            System.exit(1);
+        }
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(args[0]));
+        Element root = doc.getDocumentElement();
+        int version = Integer.parseInt(getText(root, "version"));
+        List<Message> messages = new ArrayList<Message>();
+        NodeList messageNodes = root.getElementsByTagName("message");
+        for (int i = 0; i < messageNodes.getLength(); i++) {
+            messages.add(parseMessage((Element) messageNodes.item(i)));
+        }
+        File dir = new File(args[1], PACKAGE.replace('.', File.separatorChar));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create directory: " + dir);
+        }
+        for (Message message : messages) {
+            writeMessageClass(dir, message, version);
+        }
+        writeMessagesClass(dir, messages);
+        System.out.println("Generated " + messages.size() + " MAVLink message classes in " + dir);
+    }
+
+    private static String getText(Element element, String tag) {
+        NodeList nodes = element.getElementsByTagName(tag);
+        return nodes.getLength() > 0 ? nodes.item(0).getTextContent().trim() : "";
+    }
+
+    private static Message parseMessage(Element element) {
+        Message message = new Message();
+        message.id = Integer.parseInt(element.getAttribute("id"));
+        message.name = element.getAttribute("name");
+        message.className = toClassName(message.name);
+        message.description = getText(element, "description");
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node node = children.item(i);
+            if (node.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            if (node.getNodeName().equals("extensions")) {
+                // Extension fields are not part of MAVLink 1.0 frames
+                break;
+            }
+            if (!node.getNodeName().equals("field")) {
+                continue;
+            }
+            Element fieldElement = (Element) node;
+            Field field = new Field();
+            String type = fieldElement.getAttribute("type");
+            if (type.equals("uint8_t_mavlink_version")) {
+                type = "uint8_t";
+            }
+            int bracket = type.indexOf('[');
+            if (bracket >= 0) {
+                field.arraySize = Integer.parseInt(type.substring(bracket + 1, type.indexOf(']')));
+                type = type.substring(0, bracket);
+            }
+            field.type = type;
+            field.name = fieldElement.getAttribute("name");
+            field.javaName = JAVA_KEYWORDS.contains(field.name) ? field.name + "_" : field.name;
+            field.description = fieldElement.getTextContent().trim();
+            message.fields.add(field);
+        }
+        // Wire order: fields sorted by type size, stable
+        List<Field> wireFields = new ArrayList<Field>(message.fields);
+        Collections.sort(wireFields, new Comparator<Field>() {
+            @Override
+            public int compare(Field f1, Field f2) {
+                return f2.getSize() - f1.getSize();
+            }
+        });
+        int offset = 0;
+        int crc = accumulateCRC(0xFFFF, message.name + " ");
+        for (Field field : wireFields) {
+            field.offset = offset;
+            offset += field.getSize() * Math.max(1, field.arraySize);
+            crc = accumulateCRC(crc, field.type + " ");
+            crc = accumulateCRC(crc, field.name + " ");
+            if (field.arraySize > 0) {
+                crc = accumulateCRC(crc, field.arraySize);
+            }
+        }
+        message.fields = wireFields;
+        message.payloadLength = offset;
+        message.crcExtra = (crc & 0xFF) ^ (crc >> 8);
+        return message;
+    }
+
+    private static int accumulateCRC(int crc, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            crc = accumulateCRC(crc, s.charAt(i));
+        }
+        return crc;
+    }
+
+    private static int accumulateCRC(int crc, int b) {
+        int tmp = (b & 0xFF) ^ (crc & 0xFF);
+        tmp = (tmp ^ (tmp << 4)) & 0xFF;
+        return ((crc >> 8) ^ (tmp << 8) ^ (tmp << 3) ^ (tmp >> 4)) & 0xFFFF;
+    }
+
+    private static String toClassName(String name) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : name.toLowerCase().split("_")) {
+            if (!part.isEmpty()) {
+                sb.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String escapeComment(String s) {
+        return s.replace("\\", "\\\\").replace("*/", "* /").replaceAll("\\s+", " ");
+    }
+
+    private static PrintWriter openWriter(File dir, String className) throws IOException {
+        return new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, className + ".java")),
+                "UTF-8"));
+    }
+
+    private static void writeMessageClass(File dir, Message message, int version) throws IOException {
+        PrintWriter out = openWriter(dir, message.className);
+        try {
+            out.println("// Generated by MAVLinkGenerator, do not edit");
+            out.println("package " + PACKAGE + ";");
+            out.println();
+            out.println("import java.nio.ByteBuffer;");
+            out.println();
+            out.println("/**");
+            out.println(" * " + message.name + ": " + escapeComment(message.description));
+            out.println(" */");
+            out.println("public class " + message.className + " extends " + BASE_CLASS + " {");
+            out.println("    public static final int ID = " + message.id + ";");
+            out.println("    public static final String NAME = \"" + message.name + "\";");
+            out.println("    public static final int PAYLOAD_LENGTH = " + message.payloadLength + ";");
+            out.println("    public static final int CRC_EXTRA = " + message.crcExtra + ";");
+            out.println();
+            for (Field field : message.fields) {
+                out.println("    /** " + escapeComment(field.description) + " */");
+                if (field.arraySize > 0) {
+                    out.println("    public final " + field.getJavaType() + "[] " + field.javaName + " = new " +
+                            field.getJavaType() + "[" + field.arraySize + "];");
+                } else if (field.name.equals("mavlink_version")) {
+                    out.println("    public " + field.getJavaType() + " " + field.javaName + " = " + version + ";");
+                } else {
+                    out.println("    public " + field.getJavaType() + " " + field.javaName + ";");
+                }
+            }
+            if (!message.fields.isEmpty()) {
+                out.println();
+            }
+            writeGetter(out, "int", "getMsgType", "ID");
+            writeGetter(out, "String", "getMsgName", "NAME");
+            writeGetter(out, "int", "getPayloadLength", "PAYLOAD_LENGTH");
+            writeGetter(out, "int", "getCRCExtra", "CRC_EXTRA");
+
+            out.println("    @Override");
+            out.println("    public void decode(ByteBuffer buffer, int offset) {");
+            for (Field field : message.fields) {
+                if (field.arraySize > 0) {
+                    out.println("        for (int i = 0; i < " + field.arraySize + "; i++) {");
+                    out.println("            " + field.javaName + "[i] = " +
+                            field.getReadExpression(offsetExpression(field, true)) + ";");
+                    out.println("        }");
+                } else {
+                    out.println("        " + field.javaName + " = " +
+                            field.getReadExpression(offsetExpression(field, false)) + ";");
+                }
+            }
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public void encode(ByteBuffer buffer, int offset) {");
+            for (Field field : message.fields) {
+                if (field.arraySize > 0) {
+                    out.println("        for (int i = 0; i < " + field.arraySize + "; i++) {");
+                    out.println("            " + field.getWriteStatement(offsetExpression(field, true),
+                            field.javaName + "[i]"));
+                    out.println("        }");
+                } else {
+                    out.println("        " + field.getWriteStatement(offsetExpression(field, false),
+                            field.javaName));
+                }
+            }
+            out.println("    }");
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String offsetExpression(Field field, boolean array) {
+        String base = field.offset == 0 ? "offset" : "offset + " + field.offset;
+        if (!array) {
+            return base;
+        }
+        return field.getSize() == 1 ? base + " + i" : base + " + i * " + field.getSize();
+    }
+
+    private static void writeGetter(PrintWriter out, String type, String name, String value) {
+        out.println("    @Override");
+        out.println("    public " + type + " " + name + "() {");
+        out.println("        return " + value + ";");
+        out.println("    }");
+        out.println();
+    }
+
+    private static void writeMessagesClass(File dir, List<Message> messages) throws IOException {
+        Message[] byId = new Message[256];
+        for (Message message : messages) {
+            if (message.id < 0 || message.id > 255) {
+                throw new IllegalArgumentException("Message ID out of range: " + message.name);
+            }
+            byId[message.id] = message;
+        }
+        PrintWriter out = openWriter(dir, "MAVLinkMessages");
+        try {
+            out.println("// Generated by MAVLinkGenerator, do not edit");
+            out.println("package " + PACKAGE + ";");
+            out.println();
+            out.println("/**");
+            out.println(" * Tables of generated MAVLink messages indexed by message ID.");
+            out.println(" */");
+            out.println("public final class MAVLinkMessages {");
+            out.println("    private static final int[] PAYLOAD_LENGTHS = {");
+            writeTable(out, byId, true);
+            out.println("    };");
+            out.println("    private static final int[] CRC_EXTRAS = {");
+            writeTable(out, byId, false);
+            out.println("    };");
+            out.println();
+            out.println("    private MAVLinkMessages() {");
+            out.println("    }");
+            out.println();
+            out.println("    /**");
+            out.println("     * @return payload length of message or -1 if message ID is unknown");
+            out.println("     */");
+            out.println("    public static int getPayloadLength(int msgType) {");
+            out.println("        return msgType >= 0 && msgType < PAYLOAD_LENGTHS.length ? PAYLOAD_LENGTHS[msgType] : -1;");
+            out.println("    }");
+            out.println();
+            out.println("    /**");
+            out.println("     * @return CRC extra of message or -1 if message ID is unknown");
+            out.println("     */");
+            out.println("    public static int getCRCExtra(int msgType) {");
+            out.println("        return msgType >= 0 && msgType < CRC_EXTRAS.length ? CRC_EXTRAS[msgType] : -1;");
+            out.println("    }");
+            out.println();
+            out.println("    /**");
+            out.println("     * Create new message instance.");
+            out.println("     *");
+            out.println("     * @return message or null if message ID is unknown");
+            out.println("     */");
+            out.println("    public static " + BASE_CLASS + " create(int msgType) {");
+            out.println("        switch (msgType) {");
+            for (Message message : byId) {
+                if (message != null) {
+                    out.println("            case " + message.className + ".ID:");
+                    out.println("                return new " + message.className + "();");
+                }
+            }
+            out.println("            default:");
+            out.println("                return null;");
+            out.println("        }");
+            out.println("    }");
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeTable(PrintWriter out, Message[] byId, boolean lengths) {
+        for (int i = 0; i < byId.length; i += 16) {
+            StringBuilder sb = new StringBuilder("           ");
+            for (int j = i; j < i + 16; j++) {
+                Message message = byId[j];
+                sb.append(' ').append(message == null ? -1 : (lengths ? message.payloadLength : message.crcExtra));
+                sb.append(',');
+            }
+            out.println(sb);
+        }
+    }
+}